@@ -0,0 +1,366 @@
+package ch.epfl.gameboj;
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.lcd.LcdImage;
+
+/**
+ * Classe chargée de simuler des lots de sessions sans affichage en parallèle, sur un groupe de fils d'exécution
+ * à vol de tâches (ForkJoinPool), chaque tâche simulant sa propre Game Boy. Les résultats sont transmis au fil
+ * appelant au fur et à mesure que les tâches se terminent
+ * @author Vincent Yuan (287639)
+ * @author Niels Escarfail (282347)
+ */
+public final class BatchRunner implements AutoCloseable {
+    private static final int SERIAL_DATA_ADDRESS = 0xFF01;
+
+    /**
+     * Énumération des résultats qu'une tâche peut fournir en plus de sa durée
+     */
+    public enum Output {
+        IMAGE, SERIAL, WORK_RAM
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Construit un exécuteur utilisant un fil d'exécution par processeur disponible
+     */
+    public BatchRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construit un exécuteur utilisant le nombre donné de fils d'exécution
+     * @param parallelism : le nombre de fils d'exécution
+     * @throws IllegalArgumentException si le nombre de fils n'est pas strictement positif
+     */
+    public BatchRunner(int parallelism) {
+        checkArgument(parallelism > 0);
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Simule toutes les tâches données et transmet le résultat de chacune, dès qu'elle se termine, à l'observateur donné.
+     * L'observateur est appelé sur le fil appelant, une fois par tâche, dans l'ordre de fin des tâches ;
+     * une tâche qui échoue (par exemple parce que sa cartouche est illisible) n'interrompt pas les autres
+     * @param jobs : les tâches à simuler
+     * @param listener : l'observateur des résultats
+     * @throws NullPointerException si la liste, l'une des tâches ou l'observateur est nul
+     * @throws InterruptedException si le fil appelant est interrompu en attendant un résultat
+     * @return le bilan du lot
+     */
+    public Summary run(List<Job> jobs, Consumer<Result> listener) throws InterruptedException {
+        List<Job> copy = new ArrayList<>(jobs);
+        copy.forEach(Objects::requireNonNull);
+        Objects.requireNonNull(listener);
+        BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+        long start = System.nanoTime();
+        for (Job job : copy) {
+            pool.execute(() -> results.add(job.run()));
+        }
+        long frames = 0;
+        int failures = 0;
+        for (int i = 0; i < copy.size(); ++i) {
+            Result result = results.take();
+            frames += result.frameCount();
+            if (result.error() != null) {
+                ++failures;
+            }
+            listener.accept(result);
+        }
+        return new Summary(copy.size(), failures, frames, System.nanoTime() - start);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.AutoCloseable#close()
+     * Arrête les fils d'exécution une fois les tâches en cours terminées
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Classe chargée de représenter une tâche : une cartouche simulée depuis son démarrage, ou un enregistrement
+     * rejoué depuis son état initial, pendant un nombre donné d'images
+     */
+    public static final class Job {
+        private final File rom;
+        private final InputLog inputLog;
+        private final int frames;
+        private final Set<Output> outputs;
+
+        /**
+         * Construit une tâche
+         * @param rom : le fichier de la cartouche
+         * @param inputLog : l'enregistrement à rejouer, ou null pour simuler la cartouche sans toucher aux touches
+         * @param frames : le nombre d'images à simuler (au-delà de la fin de l'enregistrement, les touches ne changent plus)
+         * @param outputs : les résultats voulus
+         * @throws NullPointerException si le fichier ou l'ensemble des résultats est nul
+         * @throws IllegalArgumentException si le nombre d'images est négatif
+         */
+        public Job(File rom, InputLog inputLog, int frames, Set<Output> outputs) {
+            checkArgument(frames >= 0);
+            this.rom = Objects.requireNonNull(rom);
+            this.inputLog = inputLog;
+            this.frames = frames;
+            Set<Output> copy = EnumSet.noneOf(Output.class);
+            copy.addAll(outputs);
+            this.outputs = Collections.unmodifiableSet(copy);
+        }
+
+        /**
+         * Retourne le fichier de la cartouche
+         * @return le fichier de la cartouche
+         */
+        public File rom() {
+            return rom;
+        }
+
+        /**
+         * Retourne l'enregistrement rejoué
+         * @return l'enregistrement rejoué, ou null s'il n'y en a pas
+         */
+        public InputLog inputLog() {
+            return inputLog;
+        }
+
+        /**
+         * Retourne le nombre d'images à simuler
+         * @return le nombre d'images à simuler
+         */
+        public int frames() {
+            return frames;
+        }
+
+        /**
+         * Retourne les résultats voulus
+         * @return l'ensemble, non modifiable, des résultats voulus
+         */
+        public Set<Output> outputs() {
+            return outputs;
+        }
+
+        /**
+         * Simule la tâche sur une nouvelle Game Boy. Le calcul des images est sauté si l'image finale n'est pas voulue.
+         * Toute erreur, y compris une Error, est transmise dans le résultat : chaque tâche fournit exactement un résultat
+         * @return le résultat de la tâche
+         */
+        private Result run() {
+            long start = System.nanoTime();
+            int frameCount = 0;
+            try {
+                GameBoy gameBoy = new GameBoy(Cartridge.ofFile(rom));
+                if (!outputs.contains(Output.IMAGE)) {
+                    gameBoy.setFrameSkip(Integer.MAX_VALUE);
+                }
+                SerialCapture serial = null;
+                if (outputs.contains(Output.SERIAL)) {
+                    serial = new SerialCapture();
+                    serial.attachTo(gameBoy.bus());
+                }
+                InputLog.Replayer replayer = (inputLog == null) ? null : new InputLog.Replayer(gameBoy, inputLog, false);
+                LcdImage image = gameBoy.lcdController().currentImage();
+                for (; frameCount < frames; ++frameCount) {
+                    image = (replayer == null) ? gameBoy.runFrame() : replayer.runFrame();
+                }
+                byte[] workRam = null;
+                if (outputs.contains(Output.WORK_RAM)) {
+                    workRam = new byte[AddressMap.WORK_RAM_SIZE];
+                    for (int i = 0; i < workRam.length; ++i) {
+                        workRam[i] = (byte) gameBoy.bus().read(AddressMap.WORK_RAM_START + i);
+                    }
+                }
+                return new Result(this, outputs.contains(Output.IMAGE) ? image : null,
+                        (serial == null) ? null : serial.output.toByteArray(), workRam,
+                        frameCount, System.nanoTime() - start, null);
+            } catch (Throwable e) {
+                return new Result(this, null, null, null, frameCount, System.nanoTime() - start, e);
+            }
+        }
+    }
+
+    /**
+     * Classe chargée de représenter le résultat d'une tâche
+     */
+    public static final class Result {
+        private final Job job;
+        private final LcdImage image;
+        private final byte[] serialOutput;
+        private final byte[] workRam;
+        private final int frameCount;
+        private final long nanos;
+        private final Throwable error;
+
+        private Result(Job job, LcdImage image, byte[] serialOutput, byte[] workRam, int frameCount, long nanos, Throwable error) {
+            this.job = job;
+            this.image = image;
+            this.serialOutput = serialOutput;
+            this.workRam = workRam;
+            this.frameCount = frameCount;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        /**
+         * Retourne la tâche dont c'est le résultat
+         * @return la tâche
+         */
+        public Job job() {
+            return job;
+        }
+
+        /**
+         * Retourne l'image du contrôleur LCD à la fin de la dernière image simulée
+         * @return l'image finale, ou null si elle n'est pas voulue ou si la tâche a échoué
+         */
+        public LcdImage image() {
+            return image;
+        }
+
+        /**
+         * Retourne les octets écrits dans le registre de données du port série (0xFF01), dans l'ordre
+         * @return une copie des octets écrits, ou null s'ils ne sont pas voulus ou si la tâche a échoué
+         */
+        public byte[] serialOutput() {
+            return (serialOutput == null) ? null : serialOutput.clone();
+        }
+
+        /**
+         * Retourne le contenu de la mémoire de travail à la fin de la simulation
+         * @return une copie de la mémoire de travail, ou null si elle n'est pas voulue ou si la tâche a échoué
+         */
+        public byte[] workRam() {
+            return (workRam == null) ? null : workRam.clone();
+        }
+
+        /**
+         * Retourne le nombre d'images simulées
+         * @return le nombre d'images simulées, inférieur à celui de la tâche si elle a échoué
+         */
+        public int frameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Retourne la durée de la tâche, de la lecture de la cartouche à la fin de la simulation
+         * @return la durée de la tâche, en nanosecondes
+         */
+        public long nanos() {
+            return nanos;
+        }
+
+        /**
+         * Retourne l'erreur ayant interrompu la tâche
+         * @return l'erreur, ou null si la tâche a réussi
+         */
+        public Throwable error() {
+            return error;
+        }
+    }
+
+    /**
+     * Classe chargée de représenter le bilan d'un lot de tâches
+     */
+    public static final class Summary {
+        private final int jobCount;
+        private final int failureCount;
+        private final long frameCount;
+        private final long nanos;
+
+        private Summary(int jobCount, int failureCount, long frameCount, long nanos) {
+            this.jobCount = jobCount;
+            this.failureCount = failureCount;
+            this.frameCount = frameCount;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Retourne le nombre de tâches du lot
+         * @return le nombre de tâches
+         */
+        public int jobCount() {
+            return jobCount;
+        }
+
+        /**
+         * Retourne le nombre de tâches ayant échoué
+         * @return le nombre de tâches ayant échoué
+         */
+        public int failureCount() {
+            return failureCount;
+        }
+
+        /**
+         * Retourne le nombre total d'images simulées par les tâches du lot
+         * @return le nombre total d'images simulées
+         */
+        public long frameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Retourne la durée du lot, de la soumission de la première tâche à la transmission du dernier résultat
+         * @return la durée du lot, en nanosecondes
+         */
+        public long nanos() {
+            return nanos;
+        }
+
+        /**
+         * Retourne le nombre d'images simulées par seconde, toutes tâches confondues
+         * @return le débit du lot, en images par seconde
+         */
+        public double framesPerSecond() {
+            return (nanos == 0) ? 0 : frameCount * 1e9 / nanos;
+        }
+    }
+
+    /**
+     * Composant chargé de conserver les octets écrits dans le registre de données du port série
+     */
+    private static final class SerialCapture implements Component {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        /* (non-Javadoc)
+         * @see ch.epfl.gameboj.component.Component#read(int)
+         */
+        @Override
+        public int read(int address) {
+            return NO_DATA;
+        }
+
+        /* (non-Javadoc)
+         * @see ch.epfl.gameboj.component.Component#write(int, int)
+         */
+        @Override
+        public void write(int address, int data) {
+            if (address == SERIAL_DATA_ADDRESS) {
+                output.write(data);
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see ch.epfl.gameboj.component.Component#handlesAddress(int)
+         */
+        @Override
+        public boolean handlesAddress(int address) {
+            return address == SERIAL_DATA_ADDRESS;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package ch.epfl.gameboj;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Objects;
 import ch.epfl.gameboj.component.Component;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
@@ -8,24 +8,76 @@ import static ch.epfl.gameboj.Preconditions.checkBits8;
 
 /**
  * Représente les bus d'adresses et de données connectant les composants du GameBoy entre eux
+ * Les accès sont décodés à l'aide d'une table de pages construite lors de l'attachement :
+ * une entrée par octet de poids fort de l'adresse, et une entrée par adresse pour la page
+ * des registres d'entrée/sortie (0xFF00 à 0xFFFF)
  * @author Vincent Yuan (287639)
  * @author Niels Escarfail (282347)
  */
 public final class Bus {
 
-    private final ArrayList<Component> attachedComponent = new ArrayList<Component>();
     private static final int DEFAULTVALUE = 0xFF;
-    
+    private static final int PAGE_SIZE = 256;
+    private static final int NB_OF_PAGES = 256;
+    private static final int IO_PAGE = AddressMap.REGS_START >>> Byte.SIZE;
+    private static final Component[] NO_COMPONENT = new Component[0];
+
+    private final Component[][] pageTable = new Component[NB_OF_PAGES][];
+    private final Component[][] ioTable = new Component[PAGE_SIZE][];
+    private final Layout model;
+    private Layout layout;
+    private Component[] attached = NO_COMPONENT;
+
+    /**
+     * Construit un bus auquel aucun composant n'est attaché
+     */
+    public Bus() {
+        this(null);
+    }
+
+    /**
+     * Construit un bus auquel aucun composant n'est attaché, qui attachera chacun de ses premiers composants aux
+     * mêmes entrées que le composant de même type attaché dans le même ordre au bus modèle donné, sans interroger le composant.
+     * Les composants attachés doivent donc répondre aux mêmes adresses que ceux du modèle ; utilisé par GameBoy.fork
+     * pour éviter de parcourir toutes les adresses. Le nouveau bus ne retient pas le modèle ni ses composants
+     * @param model : le bus modèle, ou null pour interroger chaque composant
+     */
+    Bus(Bus model) {
+        Arrays.fill(pageTable, NO_COMPONENT);
+        Arrays.fill(ioTable, NO_COMPONENT);
+        this.model = (model == null) ? null : model.layout();
+    }
+
     /**
-     * Attache le composant donnée au bus     
+     * Attache le composant donnée au bus
+     * Le composant est ajouté, dans l'ordre d'attachement, à chaque entrée de la table de pages
+     * contenant au moins une adresse à laquelle il répond
      * @param component: composant qu'on souhaite attacher au bus
      * @throws NullPointerException si le composant vaut null
      */
     public void attach(Component component) {
         Objects.requireNonNull(component);
-        attachedComponent.add(component);
+        int index = attached.length;
+        attached = append(attached, component);
+        layout = null;
+        if (model != null && index < model.types.length && model.types[index] == component.getClass()) {
+            attachAs(component, model.entries[index]);
+            return;
+        }
+        for (int page = 0; page < NB_OF_PAGES; ++page) {
+            if (page == IO_PAGE) {
+                for (int offset = 0; offset < PAGE_SIZE; ++offset) {
+                    if (component.handlesAddress(AddressMap.REGS_START + offset)) {
+                        ioTable[offset] = append(ioTable[offset], component);
+                    }
+                }
+            }
+            else if (handlesPage(component, page)) {
+                pageTable[page] = append(pageTable[page], component);
+            }
+        }
     }
-    
+
     /**
      * Retourne la valeur stockée à l'adresse donnée si au moins un des composants attaché au bus
      * possède une valeur à cette adresse, ou 0xFF sinon
@@ -35,16 +87,17 @@ public final class Bus {
      */
     public int read(int address) {
         checkBits16(address);
-        for (Component component: attachedComponent) {
-            if (component.read(address) != Component.NO_DATA) {
-                return component.read(address);
+        for (Component component : componentsAt(address)) {
+            int value = component.read(address);
+            if (value != Component.NO_DATA) {
+                return value;
             }
         }
-        return DEFAULTVALUE;               
+        return DEFAULTVALUE;
     }
-    
+
     /**
-     * Ecrit la valeur à l'adresse donnée dans tous les composant connectés au bus
+     * Ecrit la valeur à l'adresse donnée dans tous les composant connectés au bus qui répondent à cette adresse
      * @param address: adresse à laquelle on veut écrire la valeur
      * @param data: valeur qu'on veut éccrire à l'adresse
      * @throws IllegalArgumentException si l'adresse n'est pas une valeur 16 bits ou si la donnée n'est pas une valeur 8 bits
@@ -52,9 +105,121 @@ public final class Bus {
     public void write(int address, int data) {
         checkBits16(address);
         checkBits8(data);
-        for (Component component : attachedComponent) {
+        for (Component component : componentsAt(address)) {
             component.write(address, data);
         }
     }
 
- }
+    /**
+     * Retourne les entrées auxquelles chaque composant est attaché, calculées après le dernier attachement
+     * @return la disposition des composants
+     */
+    private Layout layout() {
+        if (layout == null) {
+            Class<?>[] types = new Class<?>[attached.length];
+            long[][] entries = new long[attached.length][];
+            for (int i = 0; i < attached.length; ++i) {
+                types[i] = attached[i].getClass();
+                entries[i] = new long[(NB_OF_PAGES + PAGE_SIZE) / Long.SIZE];
+                for (int entry = 0; entry < NB_OF_PAGES + PAGE_SIZE; ++entry) {
+                    Component[] components = (entry < NB_OF_PAGES) ? pageTable[entry] : ioTable[entry - NB_OF_PAGES];
+                    if (contains(components, attached[i])) {
+                        entries[i][entry / Long.SIZE] |= 1L << entry;
+                    }
+                }
+            }
+            layout = new Layout(types, entries);
+        }
+        return layout;
+    }
+
+    /**
+     * Attache le composant donné aux entrées données
+     * @param component : le composant à attacher
+     * @param layout : les entrées, un bit par page puis un bit par adresse de la page des registres d'entrée/sortie
+     */
+    private void attachAs(Component component, long[] layout) {
+        /* Les entrées identiques avant l'ajout, typiquement consécutives, partagent le même tableau après l'ajout */
+        Component[] previous = null;
+        Component[] appended = null;
+        for (int entry = 0; entry < NB_OF_PAGES + PAGE_SIZE; ++entry) {
+            if ((layout[entry / Long.SIZE] & (1L << entry)) == 0) {
+                continue;
+            }
+            Component[][] table = (entry < NB_OF_PAGES) ? pageTable : ioTable;
+            int index = entry & (PAGE_SIZE - 1);
+            if (table[index] != previous) {
+                previous = table[index];
+                appended = append(previous, component);
+            }
+            table[index] = appended;
+        }
+    }
+
+    /**
+     * Donne les composants, dans l'ordre d'attachement, susceptibles de répondre à l'adresse donnée
+     * @param address: adresse 16 bits donnée
+     * @return les composants de l'entrée de la table correspondant à l'adresse
+     */
+    private Component[] componentsAt(int address) {
+        int page = address >>> Byte.SIZE;
+        return page == IO_PAGE ? ioTable[address & (PAGE_SIZE - 1)] : pageTable[page];
+    }
+
+    /**
+     * Détermine si le composant répond à au moins une adresse de la page donnée
+     * @param component: composant donné
+     * @param page: octet de poids fort des adresses de la page
+     * @return vrai si le composant répond à une adresse de la page
+     */
+    private static boolean handlesPage(Component component, int page) {
+        for (int offset = 0; offset < PAGE_SIZE; ++offset) {
+            if (component.handlesAddress((page << Byte.SIZE) | offset)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Détermine si le composant donné fait partie des composants donnés
+     * @param components: composants d'une entrée de la table
+     * @param component: composant cherché
+     * @return vrai si le composant est dans l'entrée
+     */
+    private static boolean contains(Component[] components, Component component) {
+        for (Component c : components) {
+            if (c == component) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retourne un nouveau tableau contenant les composants donnés suivis du composant à ajouter
+     * @param components: composants déjà présents dans l'entrée
+     * @param component: composant à ajouter
+     * @return le tableau agrandi
+     */
+    private static Component[] append(Component[] components, Component component) {
+        Component[] newComponents = Arrays.copyOf(components, components.length + 1);
+        newComponents[components.length] = component;
+        return newComponents;
+    }
+
+    /**
+     * Classe représentant la disposition des composants d'un bus, dans l'ordre d'attachement : le type de chaque composant
+     * et les entrées de la table de pages auxquelles il est attaché, un bit par page puis un bit par adresse
+     * de la page des registres d'entrée/sortie. Elle ne retient pas les composants eux-mêmes
+     */
+    private static final class Layout {
+        private final Class<?>[] types;
+        private final long[][] entries;
+
+        private Layout(Class<?>[] types, long[][] entries) {
+            this.types = types;
+            this.entries = entries;
+        }
+    }
+}
@@ -13,4 +13,9 @@ public final class DebugPrintComponent implements Component {
       if (address == 0xFF01)
         System.out.print((char)data);
     }
+
+    @Override
+    public boolean handlesAddress(int address) {
+      return address == 0xFF01;
+    }
   }
@@ -2,13 +2,17 @@ package ch.epfl.gameboj;
 import static ch.epfl.gameboj.Preconditions.checkArgument;
 
 //TODO 2 fois cpu attaché mdr
+import java.nio.ByteBuffer;
 import java.util.Objects;
+import java.util.function.LongUnaryOperator;
 
 import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.Savable;
 import ch.epfl.gameboj.component.Timer;
 import ch.epfl.gameboj.component.cartridge.Cartridge;
 import ch.epfl.gameboj.component.cpu.Cpu;
 import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdImage;
 import ch.epfl.gameboj.component.memory.BootRomController;
 import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.RamController;
@@ -23,11 +27,26 @@ public final class GameBoy {
 	private final Timer timer;
     private final LcdController lcdController;
     private final Joypad joypad;
+    private final BootRomController bootRomController;
+    private final Cartridge cartridge;
+    private final Ram workRam;
+    private final Savable[] savables;
+    private final int romChecksum;
+    private ByteBuffer stateBuffer;
 	private long actualCycle;
 	
 	
 	public static final long cyclesPerSec = 0x100000;
 	public static final double cyclesPerNanosec = cyclesPerSec / Math.pow(10, 9);
+	public static final long cyclesPerFrame = 17556;
+	
+	private static final int STATE_MAGIC = 0x47424A53;
+	private static final short STATE_VERSION = 2;
+	private static final int STATE_HEADER_SIZE = Integer.BYTES + Short.BYTES + 2 * Integer.BYTES + Long.BYTES;
+	private static final int HEADER_CHECKSUM_ADDRESS = 0x14D;
+	private static final int CHECKSUM_BYTES = 3;
+	private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+	private static final int HASH_SHIFT = 32;
 	
 	
 	/**
@@ -36,10 +55,22 @@ public final class GameBoy {
  	* @throws NullPointerException si la cartouche donnée est nulle.
  	*/
 	public GameBoy(Cartridge cartridge) {
+	    this(cartridge, null);
+	}
+	
+	/**
+ 	* Construit une GameBoy comme GameBoy(Cartridge), ses composants étant attachés aux mêmes adresses que ceux
+ 	* du bus modèle donné, sans parcourir les adresses, voir Bus(Bus)
+ 	* @param cartridge : la cartouche que l'on met dans la GameBoy.
+ 	* @param model : le bus d'une GameBoy, ou null
+ 	* @throws NullPointerException si la cartouche donnée est nulle.
+ 	*/
+	private GameBoy(Cartridge cartridge, Bus model) {
     	Objects.requireNonNull(cartridge);
-    	BootRomController bootRomController = new BootRomController(cartridge);    	
-    	Bus bus = new Bus();
-    	Ram workRam = new Ram(AddressMap.WORK_RAM_SIZE);
+    	this.cartridge = cartridge;
+    	bootRomController = new BootRomController(cartridge);    	
+    	Bus bus = new Bus(model);
+    	workRam = new Ram(AddressMap.WORK_RAM_SIZE);
     	RamController workRamController = new RamController(workRam, AddressMap.WORK_RAM_START, AddressMap.WORK_RAM_END);
     	RamController echoRamController = new RamController(workRam, AddressMap.ECHO_RAM_START, AddressMap.ECHO_RAM_END);
     	cpu = new Cpu();
@@ -55,6 +86,13 @@ public final class GameBoy {
     	lcdController.attachTo(bus);
     	joypad.attachTo(bus);
     	this.bus = bus;
+    	/* Le processeur en dernier, la sauvegarde des autres composants pouvant lever des interruptions */
+    	savables = new Savable[] { timer, lcdController, joypad, bootRomController, workRam, cpu };
+    	int checksum = 0;
+    	for (int i = 0; i < CHECKSUM_BYTES; ++i) {
+    	    checksum = (checksum << Byte.SIZE) | cartridge.read(HEADER_CHECKSUM_ADDRESS + i);
+    	}
+    	romChecksum = checksum;
 	}
 	
 	
@@ -68,9 +106,237 @@ public final class GameBoy {
     	while (actualCycle < cycle) {
         	timer.cycle(actualCycle);
         	lcdController.cycle(actualCycle);
-        	cpu.cycle(actualCycle);
-        	++actualCycle;
+        	cpu.cycle(actualCycle, eventHorizon(actualCycle + 1, cycle));
+        	actualCycle = nextEventCycle(actualCycle + 1, cycle);
+    	}
+	}
+	
+	/**
+ 	* Simule la Game Boy jusqu'au début de la prochaine période VBLANK (inclus), c'est-à-dire jusqu'à ce que
+ 	* le contrôleur LCD ait terminé l'image en cours. Si l'écran est éteint, ou s'il est éteint puis rallumé
+ 	* pendant l'image, la simulation s'arrête après la durée d'une image
+ 	* @return l'image actuelle du contrôleur LCD, sans copie (la dernière image calculée si celle-ci a été sautée, voir setFrameSkip)
+ 	*/
+	public LcdImage runFrame() {
+	    return runFrame(cycle -> Long.MAX_VALUE);
+	}
+	
+	/**
+ 	* Comme runFrame, mais appelle l'action donnée avec le cycle actuel avant de simuler le suivant, ainsi qu'avant
+ 	* le cycle qu'elle retourne, jusqu'à la fin de l'image. Permet par exemple d'appuyer sur des touches à des cycles précis
+ 	* @param action : l'action, qui retourne le prochain cycle, strictement supérieur à celui donné, avant lequel l'appeler
+ 	* (Long.MAX_VALUE pour ne plus l'appeler pendant l'image)
+ 	* @return l'image actuelle du contrôleur LCD, sans copie
+ 	*/
+	LcdImage runFrame(LongUnaryOperator action) {
+	    long vBlanks = lcdController.vBlankCount();
+	    long end = actualCycle + cyclesPerFrame;
+	    long next = actualCycle;
+	    while (actualCycle < end && lcdController.vBlankCount() == vBlanks) {
+	        if (actualCycle == next) {
+	            next = action.applyAsLong(actualCycle);
+	        }
+	        long vBlank = lcdController.nextVBlankCycle(actualCycle);
+	        runUntil(Math.min(next, (vBlank < end) ? vBlank + 1 : end));
+	    }
+	    return lcdController.currentImage();
+	}
+	
+	/**
+ 	* Simule le nombre d'images donné, voir runFrame
+ 	* @param frames : le nombre d'images à simuler
+ 	* @throws IllegalArgumentException si le nombre d'images est négatif
+ 	* @return l'image actuelle du contrôleur LCD après la dernière image, sans copie
+ 	*/
+	public LcdImage runFrames(int frames) {
+	    checkArgument(frames >= 0);
+	    for (int i = 0; i < frames; ++i) {
+	        runFrame();
+	    }
+	    return lcdController.currentImage();
+	}
+	
+	/**
+ 	* Détermine le prochain cycle à simuler : le plus petit des prochains événements des composants pilotés
+ 	* par l'horloge, borné par le dernier cycle à simuler afin que tous les composants soient à jour à la fin de runUntil.
+ 	* Lorsque le processeur est arrêté par HALT, seuls comptent les événements pouvant lever une interruption activée dans IE
+ 	* (le clavier ne lève les siennes qu'entre deux appels à runUntil)
+ 	* @param cycle : le cycle suivant celui qui vient d'être simulé
+ 	* @param limit : le cycle jusqu'auquel (exclu) la simulation est effectuée
+ 	* @return le prochain cycle à simuler, ou limit si la simulation est terminée
+ 	*/
+	private long nextEventCycle(long cycle, long limit) {
+    	if (cycle >= limit) {
+        	return limit;
+    	}
+    	long cpuEvent = cpu.nextEventCycle(cycle);
+    	long next = Math.min(limit - 1, cpuEvent);
+    	if (cpuEvent == Long.MAX_VALUE) {
+        	int interrupts = bus.read(AddressMap.REG_IE);
+        	next = Math.min(next, lcdController.nextInterruptCycle(cycle, interrupts));
+        	if (next > cycle) {
+            	next = Math.min(next, timer.nextInterruptCycle(cycle, interrupts));
+        	}
+        	return Math.max(next, cycle);
+    	}
+    	if (next > cycle) {
+        	next = Math.min(next, lcdController.nextEventCycle(cycle));
     	}
+    	if (next > cycle) {
+        	next = Math.min(next, timer.nextEventCycle(cycle));
+    	}
+    	return Math.max(next, cycle);
+	}
+	
+	/**
+ 	* Détermine le cycle du prochain changement d'état visible du contrôleur LCD ou du minuteur (voir Clocked.nextStateChangeCycle),
+ 	* borné par le dernier cycle à simuler. Avant ce cycle, le processeur peut sauter des boucles d'attente active
+ 	* sans que cela soit visible
+ 	* @param cycle : le cycle suivant celui en cours de simulation
+ 	* @param limit : le cycle jusqu'auquel (exclu) la simulation est effectuée
+ 	* @return le cycle avant lequel l'état visible des autres composants ne change pas
+ 	*/
+	private long eventHorizon(long cycle, long limit) {
+	    return Math.min(limit, Math.min(lcdController.nextStateChangeCycle(cycle), timer.nextStateChangeCycle(cycle)));
+	}
+	
+	/**
+ 	* Choisit la manière dont le contrôleur LCD calcule les images, voir LcdController.setPixelBufferEnabled
+ 	* @param enabled : vrai pour calculer les lignes pixel par pixel, sans allocation (les images actuelles partagent alors deux tableaux)
+ 	*/
+	public void setPixelBufferEnabled(boolean enabled) {
+	    lcdController.setPixelBufferEnabled(enabled);
+	}
+	
+	/**
+ 	* Choisit le nombre d'images dont le calcul est sauté après chaque image calculée, voir LcdController.setFrameSkip
+ 	* @param frames : le nombre d'images sautées après chaque image calculée, 0 pour toutes les calculer
+ 	* @throws IllegalArgumentException si le nombre donné est négatif
+ 	*/
+	public void setFrameSkip(int frames) {
+	    lcdController.setFrameSkip(frames);
+	}
+	
+	/**
+ 	* Retourne la taille, en octets, d'un état sauvegardé par snapshot, qui ne dépend que de la cartouche
+ 	* @return la taille d'un état sauvegardé
+ 	*/
+	public int stateSize() {
+	    int size = STATE_HEADER_SIZE;
+	    for (Savable s : savables) {
+	        size += s.stateSize();
+	    }
+	    return size;
+	}
+	
+	/**
+ 	* Écrit l'état complet de la Game Boy (processeur, mémoires, registres des composants, contrôleur de la cartouche
+ 	* et sa mémoire vive, cycles des composants) dans le tampon donné, à partir de sa position, qui avance de stateSize() octets.
+ 	* L'état commence par un en-tête versionné identifiant la cartouche. Le tampon peut être réutilisé d'une sauvegarde à l'autre.
+ 	* Les composants qui rattrapent leur retard lors des accès sont d'abord rattrapés, de sorte que l'état écrit ne dépende
+ 	* que du nombre de cycles simulés, et non de la manière dont la simulation a été découpée
+ 	* @param buffer : le tampon donné
+ 	* @throws NullPointerException si le tampon est nul
+ 	* @throws IllegalArgumentException s'il reste moins de stateSize() octets dans le tampon
+ 	*/
+	public void snapshot(ByteBuffer buffer) {
+	    checkArgument(buffer.remaining() >= stateSize());
+	    buffer.putInt(STATE_MAGIC).putShort(STATE_VERSION).putInt(romChecksum).putInt(stateSize()).putLong(actualCycle);
+	    for (Savable s : savables) {
+	        s.saveState(buffer);
+	    }
+	}
+	
+	/**
+ 	* Écrit l'état complet de la Game Boy dans un nouveau tampon, voir snapshot(ByteBuffer)
+ 	* @return un nouveau tampon contenant l'état, prêt à être lu
+ 	*/
+	public ByteBuffer snapshot() {
+	    ByteBuffer buffer = ByteBuffer.allocate(stateSize());
+	    snapshot(buffer);
+	    return buffer.flip();
+	}
+	
+	/**
+ 	* Remplace l'état complet de la Game Boy par celui lu dans le tampon donné, à partir de sa position,
+ 	* qui avance de stateSize() octets. L'en-tête est vérifié avant toute modification. L'image actuelle
+ 	* du contrôleur LCD n'est remplacée qu'à la fin de l'image en cours, voir LcdController.loadState
+ 	* @param buffer : le tampon donné, contenant un état écrit par snapshot
+ 	* @throws NullPointerException si le tampon est nul
+ 	* @throws IllegalArgumentException si le tampon ne contient pas un état de cette version, écrit
+ 	* pour la même cartouche, ou s'il reste moins de stateSize() octets dans le tampon
+ 	*/
+	public void restore(ByteBuffer buffer) {
+	    restore(buffer, null);
+	}
+	
+	/**
+ 	* Retourne une nouvelle Game Boy, indépendante de celle-ci, dans le même état, avec une cartouche de même contenu.
+ 	* Les mémoires vives (de travail, vidéo, des sprites, haute et de la cartouche) ne sont pas copiées : elles partagent
+ 	* leurs pages avec celles de cette Game Boy, chacune des deux ne copiant une page qu'à sa première écriture, voir Ram.shareFrom.
+ 	* Comme pour restore, l'image actuelle de la nouvelle Game Boy n'est calculée qu'à la fin de l'image en cours ;
+ 	* ses réglages (calcul des images) et ses observateurs sont ceux d'une nouvelle Game Boy
+ 	* @return une nouvelle Game Boy dans le même état
+ 	*/
+	public GameBoy fork() {
+	    GameBoy child = new GameBoy(cartridge.withSameRom(), bus);
+	    ByteBuffer buffer = stateBuffer();
+	    snapshot(buffer);
+	    child.restore(buffer.flip(), this);
+	    return child;
+	}
+	
+	/**
+ 	* Comme restore(ByteBuffer), l'état ayant été écrit par snapshot sur la Game Boy source donnée, et n'ayant pas changé
+ 	* depuis, si elle n'est pas nulle ; les mémoires vives partagent alors leurs pages avec celles de la source
+ 	* @param buffer : le tampon donné, contenant un état écrit par snapshot
+ 	* @param source : la Game Boy dont l'état a été écrit, ou null
+ 	*/
+	private void restore(ByteBuffer buffer, GameBoy source) {
+	    int start = buffer.position();
+	    checkArgument(buffer.remaining() >= STATE_HEADER_SIZE);
+	    checkArgument(buffer.getInt(start) == STATE_MAGIC);
+	    checkArgument(buffer.getShort(start + Integer.BYTES) == STATE_VERSION);
+	    checkArgument(buffer.getInt(start + Integer.BYTES + Short.BYTES) == romChecksum);
+	    checkArgument(buffer.getInt(start + 2 * Integer.BYTES + Short.BYTES) == stateSize());
+	    checkArgument(buffer.remaining() >= stateSize());
+	    buffer.position(start + STATE_HEADER_SIZE - Long.BYTES);
+	    actualCycle = buffer.getLong();
+	    for (int i = 0; i < savables.length; ++i) {
+	        savables[i].loadState(buffer, (source == null) ? null : source.savables[i]);
+	    }
+	}
+	
+	/**
+ 	* Calcule une empreinte de 64 bits de l'état complet de la Game Boy, tel qu'écrit par snapshot. Deux Game Boy
+ 	* ayant simulé le même nombre de cycles avec la même cartouche et les mêmes appuis de touches ont la même empreinte
+ 	* @return l'empreinte de l'état actuel
+ 	*/
+	public long stateHash() {
+	    ByteBuffer hashBuffer = stateBuffer();
+	    snapshot(hashBuffer);
+	    hashBuffer.flip();
+	    long hash = 0;
+	    while (hashBuffer.remaining() >= Long.BYTES) {
+	        hash = (hash ^ hashBuffer.getLong()) * HASH_MULTIPLIER;
+	        hash ^= hash >>> HASH_SHIFT;
+	    }
+	    while (hashBuffer.hasRemaining()) {
+	        hash = (hash ^ hashBuffer.get()) * HASH_MULTIPLIER;
+	        hash ^= hash >>> HASH_SHIFT;
+	    }
+	    return hash;
+	}
+	
+	/**
+ 	* Retourne le tampon, vidé, dans lequel l'état est écrit par stateHash et fork, alloué à la première utilisation
+ 	* @return le tampon vidé
+ 	*/
+	private ByteBuffer stateBuffer() {
+	    if (stateBuffer == null) {
+	        stateBuffer = ByteBuffer.allocate(stateSize());
+	    }
+	    return stateBuffer.clear();
 	}
 	
 	/**
@@ -0,0 +1,379 @@
+package ch.epfl.gameboj;
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.Joypad.Key;
+import ch.epfl.gameboj.component.lcd.LcdImage;
+
+/**
+ * Classe chargée de représenter l'enregistrement d'une session de jeu, permettant de la rejouer à l'identique :
+ * l'état de la Game Boy au début de l'enregistrement, les appuis et relâchements de touches datés du cycle
+ * auquel ils ont eu lieu, le nombre d'images simulées et, éventuellement, l'empreinte de l'état
+ * de la Game Boy à la fin de chacune d'elles (voir GameBoy.stateHash), qui permet de trouver la première image
+ * à laquelle une autre simulation diverge. Un enregistrement est immuable
+ * @author Vincent Yuan (287639)
+ * @author Niels Escarfail (282347)
+ */
+public final class InputLog {
+    private static final int MAGIC = 0x47424A49;
+    private static final int VERSION = 1;
+    private static final int BIT_4 = 3;
+    private static final int LENGTH_3 = 3;
+    private static final Key[] KEYS = Key.values();
+
+    private final byte[] initialState;
+    private final long[] eventCycles;
+    private final byte[] events;
+    private final int frameCount;
+    private final long[] frameHashes;
+
+    /**
+     * Construit un enregistrement à partir des tableaux donnés, qui ne sont pas copiés
+     */
+    private InputLog(byte[] initialState, long[] eventCycles, byte[] events, int frameCount, long[] frameHashes) {
+        this.initialState = initialState;
+        this.eventCycles = eventCycles;
+        this.events = events;
+        this.frameCount = frameCount;
+        this.frameHashes = frameHashes;
+    }
+
+    /**
+     * Retourne le nombre d'appuis et de relâchements de touches enregistrés
+     * @return le nombre d'événements
+     */
+    public int eventCount() {
+        return events.length;
+    }
+
+    /**
+     * Retourne le cycle auquel a eu lieu l'événement d'index donné, c-à-d le nombre de cycles simulés à ce moment-là
+     * @param index : l'index de l'événement
+     * @throws IndexOutOfBoundsException si l'index est invalide
+     * @return le cycle de l'événement
+     */
+    public long eventCycle(int index) {
+        return eventCycles[Objects.checkIndex(index, events.length)];
+    }
+
+    /**
+     * Retourne la touche de l'événement d'index donné
+     * @param index : l'index de l'événement
+     * @throws IndexOutOfBoundsException si l'index est invalide
+     * @return la touche appuyée ou relâchée
+     */
+    public Key eventKey(int index) {
+        return KEYS[Bits.clip(LENGTH_3, events[Objects.checkIndex(index, events.length)])];
+    }
+
+    /**
+     * Retourne vrai ssi l'événement d'index donné est un appui
+     * @param index : l'index de l'événement
+     * @throws IndexOutOfBoundsException si l'index est invalide
+     * @return vrai pour un appui, faux pour un relâchement
+     */
+    public boolean eventPressed(int index) {
+        return Bits.test(events[Objects.checkIndex(index, events.length)], BIT_4);
+    }
+
+    /**
+     * Retourne le nombre d'images simulées pendant l'enregistrement
+     * @return le nombre d'images
+     */
+    public int frameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Retourne vrai ssi l'empreinte de l'état à la fin de chaque image a été enregistrée
+     * @return vrai si les empreintes sont disponibles
+     */
+    public boolean hasFrameHashes() {
+        return frameHashes != null;
+    }
+
+    /**
+     * Retourne l'empreinte de l'état de la Game Boy à la fin de l'image d'index donné
+     * @param frame : l'index de l'image
+     * @throws IllegalStateException si les empreintes n'ont pas été enregistrées
+     * @throws IndexOutOfBoundsException si l'index est invalide
+     * @return l'empreinte de l'état à la fin de l'image
+     */
+    public long frameHash(int frame) {
+        if (frameHashes == null) {
+            throw new IllegalStateException();
+        }
+        return frameHashes[Objects.checkIndex(frame, frameCount)];
+    }
+
+    /**
+     * Retourne l'index de la première image à la fin de laquelle l'empreinte de l'état diffère de celle de l'autre
+     * enregistrement donné, parmi les images dont les deux enregistrements ont l'empreinte
+     * @param that : l'autre enregistrement
+     * @throws IllegalArgumentException si l'un des enregistrements n'a pas les empreintes
+     * @return l'index de la première image divergente, ou -1 si aucune ne diverge
+     */
+    public int firstDivergentFrame(InputLog that) {
+        checkArgument(hasFrameHashes() && that.hasFrameHashes());
+        int frames = Math.min(frameCount, that.frameCount);
+        return Arrays.mismatch(frameHashes, 0, frames, that.frameHashes, 0, frames);
+    }
+
+    /**
+     * Écrit l'enregistrement dans le flot donné, dans un format binaire versionné
+     * @param stream : le flot donné, qui n'est pas fermé
+     * @throws IOException en cas d'erreur d'entrée-sortie
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(initialState.length);
+        out.write(initialState);
+        out.writeInt(events.length);
+        for (int i = 0; i < events.length; ++i) {
+            out.writeLong(eventCycles[i]);
+            out.writeByte(events[i]);
+        }
+        out.writeInt(frameCount);
+        out.writeBoolean(hasFrameHashes());
+        if (hasFrameHashes()) {
+            for (long hash : frameHashes) {
+                out.writeLong(hash);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Lit un enregistrement écrit par writeTo dans le flot donné
+     * @param stream : le flot donné, qui n'est pas fermé
+     * @throws IOException en cas d'erreur d'entrée-sortie, ou si le flot se termine avant la fin de l'enregistrement
+     * @throws IllegalArgumentException si le flot ne contient pas un enregistrement de cette version
+     * @return l'enregistrement lu
+     */
+    public static InputLog readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        checkArgument(in.readInt() == MAGIC);
+        checkArgument(in.readInt() == VERSION);
+        int stateSize = in.readInt();
+        checkArgument(stateSize >= 0);
+        byte[] initialState = new byte[stateSize];
+        in.readFully(initialState);
+        int eventCount = in.readInt();
+        checkArgument(eventCount >= 0);
+        long[] eventCycles = new long[eventCount];
+        byte[] events = new byte[eventCount];
+        for (int i = 0; i < eventCount; ++i) {
+            eventCycles[i] = in.readLong();
+            events[i] = in.readByte();
+            checkArgument((events[i] >>> (BIT_4 + 1)) == 0);
+        }
+        int frameCount = in.readInt();
+        checkArgument(frameCount >= 0);
+        long[] frameHashes = null;
+        if (in.readBoolean()) {
+            frameHashes = new long[frameCount];
+            for (int i = 0; i < frameCount; ++i) {
+                frameHashes[i] = in.readLong();
+            }
+        }
+        return new InputLog(initialState, eventCycles, events, frameCount, frameHashes);
+    }
+
+    /**
+     * Classe chargée d'enregistrer une session de jeu sur une Game Boy : les appuis et relâchements de touches
+     * sont enregistrés, datés, dès qu'ils ont lieu, et les images doivent être simulées par runFrame.
+     * L'état de la Game Boy ne doit pas être restauré pendant l'enregistrement
+     */
+    public static final class Recorder {
+        private final GameBoy gameBoy;
+        private final byte[] initialState;
+        private final boolean hashFrames;
+        private long[] eventCycles = new long[1];
+        private byte[] events = new byte[1];
+        private int eventCount;
+        private long[] frameHashes = new long[1];
+        private int frameCount;
+        private boolean recording = true;
+
+        /**
+         * Commence l'enregistrement d'une session de jeu sur la Game Boy donnée, à partir de son état actuel
+         * @param gameBoy : la Game Boy donnée
+         * @param hashFrames : vrai pour enregistrer l'empreinte de l'état à la fin de chaque image
+         * @throws NullPointerException si la Game Boy est nulle
+         */
+        public Recorder(GameBoy gameBoy, boolean hashFrames) {
+            this.gameBoy = gameBoy;
+            this.hashFrames = hashFrames;
+            initialState = gameBoy.snapshot().array();
+            gameBoy.joypad().addKeyListener(this::keyChanged);
+        }
+
+        /**
+         * Simule l'image suivante, voir GameBoy.runFrame, en enregistrant l'empreinte de l'état à sa fin si demandé
+         * @return l'image actuelle du contrôleur LCD, sans copie
+         */
+        public LcdImage runFrame() {
+            LcdImage image = gameBoy.runFrame();
+            if (recording) {
+                if (hashFrames) {
+                    if (frameCount == frameHashes.length) {
+                        frameHashes = Arrays.copyOf(frameHashes, 2 * frameCount);
+                    }
+                    frameHashes[frameCount] = gameBoy.stateHash();
+                }
+                ++frameCount;
+            }
+            return image;
+        }
+
+        /**
+         * Termine l'enregistrement : les événements et images suivants ne sont plus enregistrés
+         */
+        public void stop() {
+            recording = false;
+        }
+
+        /**
+         * Retourne l'enregistrement de la session jusqu'à maintenant
+         * @return l'enregistrement
+         */
+        public InputLog log() {
+            return new InputLog(initialState, Arrays.copyOf(eventCycles, eventCount), Arrays.copyOf(events, eventCount),
+                    frameCount, hashFrames ? Arrays.copyOf(frameHashes, frameCount) : null);
+        }
+
+        /**
+         * Enregistre un appui ou un relâchement de touche, daté du nombre de cycles simulés
+         */
+        private void keyChanged(Key key, boolean pressed) {
+            if (!recording) {
+                return;
+            }
+            if (eventCount == events.length) {
+                eventCycles = Arrays.copyOf(eventCycles, 2 * eventCount);
+                events = Arrays.copyOf(events, 2 * eventCount);
+            }
+            eventCycles[eventCount] = gameBoy.cycles();
+            events[eventCount] = (byte) Bits.set(key.index(), BIT_4, pressed);
+            ++eventCount;
+        }
+    }
+
+    /**
+     * Classe chargée de rejouer un enregistrement sur une Game Boy, aussi vite que possible : chaque touche est
+     * appuyée ou relâchée au cycle enregistré, et l'empreinte de l'état à la fin de chaque image peut être calculée
+     * pour être comparée à celle de l'enregistrement
+     */
+    public static final class Replayer {
+        private final GameBoy gameBoy;
+        private final InputLog log;
+        private final Joypad joypad;
+        private final long[] frameHashes;
+        private int nextEvent;
+        private int frameCount;
+
+        /**
+         * Prépare la Game Boy donnée à rejouer l'enregistrement donné, en lui restaurant l'état du début de l'enregistrement
+         * @param gameBoy : la Game Boy, dont la cartouche doit être celle de l'enregistrement
+         * @param log : l'enregistrement
+         * @param hashFrames : vrai pour calculer l'empreinte de l'état à la fin de chaque image
+         * @throws NullPointerException si la Game Boy ou l'enregistrement est nul
+         * @throws IllegalArgumentException si l'état initial de l'enregistrement n'est pas valide pour la Game Boy
+         */
+        public Replayer(GameBoy gameBoy, InputLog log, boolean hashFrames) {
+            gameBoy.restore(ByteBuffer.wrap(log.initialState));
+            this.gameBoy = gameBoy;
+            this.log = log;
+            this.joypad = gameBoy.joypad();
+            frameHashes = hashFrames ? new long[log.frameCount] : null;
+        }
+
+        /**
+         * Simule l'image suivante, voir GameBoy.runFrame, en appuyant sur les touches et en les relâchant aux cycles enregistrés
+         * @return l'image actuelle du contrôleur LCD, sans copie
+         */
+        public LcdImage runFrame() {
+            LcdImage image = gameBoy.runFrame(this::replayEvents);
+            if (frameHashes != null && frameCount < frameHashes.length) {
+                frameHashes[frameCount] = gameBoy.stateHash();
+            }
+            ++frameCount;
+            return image;
+        }
+
+        /**
+         * Simule les images restantes de l'enregistrement, puis rejoue ses derniers événements
+         * @return l'index de la première image divergente, voir firstDivergentFrame, ou -1 si les empreintes
+         * ne sont pas disponibles
+         */
+        public int runToEnd() {
+            while (frameCount < log.frameCount) {
+                runFrame();
+            }
+            while (nextEvent < log.eventCount()) {
+                gameBoy.runUntil(Math.max(gameBoy.cycles(), log.eventCycles[nextEvent]));
+                replayEvents(gameBoy.cycles());
+            }
+            return (frameHashes != null && log.hasFrameHashes()) ? firstDivergentFrame() : -1;
+        }
+
+        /**
+         * Retourne le nombre d'images simulées depuis le début du rejeu
+         * @return le nombre d'images simulées
+         */
+        public int frameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Retourne vrai ssi toutes les images et tous les événements de l'enregistrement ont été rejoués
+         * @return vrai si le rejeu est terminé
+         */
+        public boolean isFinished() {
+            return frameCount >= log.frameCount && nextEvent == log.eventCount();
+        }
+
+        /**
+         * Retourne l'index de la première image rejouée à la fin de laquelle l'empreinte de l'état diffère de celle de l'enregistrement
+         * @throws IllegalStateException si l'enregistrement n'a pas les empreintes ou si elles ne sont pas calculées
+         * @return l'index de la première image divergente, ou -1 si aucune image rejouée ne diverge
+         */
+        public int firstDivergentFrame() {
+            if (frameHashes == null || !log.hasFrameHashes()) {
+                throw new IllegalStateException();
+            }
+            int frames = Math.min(frameCount, log.frameCount);
+            return Arrays.mismatch(frameHashes, 0, frames, log.frameHashes, 0, frames);
+        }
+
+        /**
+         * Appuie sur les touches et les relâche selon les événements enregistrés jusqu'au cycle donné (inclus)
+         * @param cycle : le nombre de cycles simulés
+         * @return le cycle du prochain événement, ou Long.MAX_VALUE s'il n'y en a plus
+         */
+        private long replayEvents(long cycle) {
+            while (nextEvent < log.eventCount() && log.eventCycles[nextEvent] <= cycle) {
+                if (log.eventPressed(nextEvent)) {
+                    joypad.keyPressed(log.eventKey(nextEvent));
+                }
+                else {
+                    joypad.keyReleased(log.eventKey(nextEvent));
+                }
+                ++nextEvent;
+            }
+            return (nextEvent < log.eventCount()) ? log.eventCycles[nextEvent] : Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package ch.epfl.gameboj;
+import static ch.epfl.gameboj.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Classe chargée de conserver les derniers états d'une Game Boy, typiquement un par image, afin de pouvoir revenir
+ * en arrière image par image. Seul le dernier état est conservé en entier ; chacun des précédents est stocké,
+ * dans un anneau de taille fixe, sous la forme de la différence (ou exclusif, compressé par plages de zéros)
+ * avec l'état qui le suit, les états les plus anciens étant oubliés lorsque l'anneau est plein.
+ * Les mémoires (de travail, vidéo, des sprites, de la cartouche) changeant peu d'une image à l'autre,
+ * ces différences sont petites
+ * @author Vincent Yuan (287639)
+ * @author Niels Escarfail (282347)
+ */
+public final class RewindBuffer {
+    private static final int LENGTH_7 = 7;
+    private static final int BIT_8 = 7;
+    private static final int LOW_7_BITS = (1 << LENGTH_7) - 1;
+
+    private final GameBoy gameBoy;
+    private final int capacity;
+    private final byte[][] deltas;
+    private final int[] deltaLengths;
+    private final byte[] encoded;
+    private byte[] head;
+    private byte[] current;
+    private ByteBuffer headBuffer;
+    private ByteBuffer currentBuffer;
+    private int newest = -1;
+    private int size;
+    private long captures;
+    private long captureNanos;
+    private long lastCaptureNanos;
+
+    /**
+     * Construit un anneau vide conservant au plus le nombre donné d'états de la Game Boy donnée
+     * @param gameBoy : la Game Boy dont les états sont conservés
+     * @param capacity : le nombre maximal d'états conservés
+     * @throws NullPointerException si la Game Boy est nulle
+     * @throws IllegalArgumentException si la capacité n'est pas strictement positive
+     */
+    public RewindBuffer(GameBoy gameBoy, int capacity) {
+        Objects.requireNonNull(gameBoy);
+        checkArgument(capacity > 0);
+        this.gameBoy = gameBoy;
+        this.capacity = capacity;
+        int stateSize = gameBoy.stateSize();
+        deltas = new byte[capacity - 1][];
+        deltaLengths = new int[capacity - 1];
+        /* Au pire, un octet sur deux diffère et chacun coûte, en plus de lui-même, deux longueurs d'un octet */
+        encoded = new byte[2 * stateSize + 2 * Integer.BYTES];
+        head = new byte[stateSize];
+        current = new byte[stateSize];
+        headBuffer = ByteBuffer.wrap(head);
+        currentBuffer = ByteBuffer.wrap(current);
+    }
+
+    /**
+     * Construit un anneau vide conservant les états des dernières secondes d'une Game Boy dont un état est conservé par image
+     * @param gameBoy : la Game Boy dont les états sont conservés
+     * @param seconds : la durée, en secondes, couverte par l'anneau
+     * @throws NullPointerException si la Game Boy est nulle
+     * @throws IllegalArgumentException si la durée n'est pas strictement positive
+     * @return un anneau contenant au plus un état par image des dernières secondes
+     */
+    public static RewindBuffer ofSeconds(GameBoy gameBoy, int seconds) {
+        checkArgument(seconds > 0);
+        return new RewindBuffer(gameBoy, (int) Math.ceil((double) seconds * GameBoy.cyclesPerSec / GameBoy.cyclesPerFrame));
+    }
+
+    /**
+     * Conserve l'état actuel de la Game Boy comme dernier état, en oubliant le plus ancien si l'anneau est plein
+     */
+    public void capture() {
+        long start = System.nanoTime();
+        currentBuffer.clear();
+        gameBoy.snapshot(currentBuffer);
+        if (size > 0 && deltas.length > 0) {
+            int length = encodeDelta(head, current, encoded);
+            newest = (newest + 1) % deltas.length;
+            if (deltas[newest] == null || deltas[newest].length < length) {
+                deltas[newest] = new byte[length];
+            }
+            System.arraycopy(encoded, 0, deltas[newest], 0, length);
+            deltaLengths[newest] = length;
+        }
+        byte[] previous = head;
+        head = current;
+        current = previous;
+        ByteBuffer previousBuffer = headBuffer;
+        headBuffer = currentBuffer;
+        currentBuffer = previousBuffer;
+        size = Math.min(size + 1, capacity);
+        lastCaptureNanos = System.nanoTime() - start;
+        captureNanos += lastCaptureNanos;
+        ++captures;
+    }
+
+    /**
+     * Revient à l'état conservé précédant le dernier, qui est oublié, et le restaure dans la Game Boy.
+     * Comme pour GameBoy.restore, l'image actuelle du contrôleur LCD n'est remplacée qu'à la fin de l'image suivante
+     * @return vrai si un état a été restauré, faux si l'anneau contient moins de deux états
+     */
+    public boolean stepBack() {
+        if (size < 2) {
+            return false;
+        }
+        applyDelta(deltas[newest], deltaLengths[newest], head);
+        newest = (newest - 1 + deltas.length) % deltas.length;
+        --size;
+        headBuffer.clear();
+        gameBoy.restore(headBuffer);
+        return true;
+    }
+
+    /**
+     * Retourne le nombre d'états conservés
+     * @return le nombre d'états conservés, entre 0 et la capacité
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Retourne le nombre maximal d'états conservés
+     * @return la capacité de l'anneau
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Retourne la mémoire occupée par l'anneau, c-à-d par le dernier état, les différences (y compris la place
+     * réservée mais inutilisée) et les tableaux de travail
+     * @return la mémoire occupée, en octets
+     */
+    public long memoryUsage() {
+        long usage = head.length + current.length + encoded.length;
+        for (byte[] delta : deltas) {
+            usage += (delta == null) ? 0 : delta.length;
+        }
+        return usage;
+    }
+
+    /**
+     * Retourne la durée de la dernière conservation d'un état
+     * @return la durée de la dernière conservation, en nanosecondes, ou 0 si aucun état n'a encore été conservé
+     */
+    public long lastCaptureNanos() {
+        return lastCaptureNanos;
+    }
+
+    /**
+     * Retourne la durée moyenne de la conservation d'un état, depuis la création de l'anneau
+     * @return la durée moyenne d'une conservation, en nanosecondes, ou 0 si aucun état n'a encore été conservé
+     */
+    public double averageCaptureNanos() {
+        return (captures == 0) ? 0 : (double) captureNanos / captures;
+    }
+
+    /**
+     * Encode la différence entre deux états de même taille comme une suite de couples formés d'une plage d'octets égaux
+     * (sa longueur) et d'une plage d'octets différents (sa longueur suivie de l'ou exclusif des octets des deux états),
+     * les longueurs étant écrites par groupes de 7 bits
+     * @param from : le premier état
+     * @param to : le second état
+     * @param out : le tableau recevant la différence encodée
+     * @return la longueur de la différence encodée
+     */
+    private static int encodeDelta(byte[] from, byte[] to, byte[] out) {
+        int length = 0;
+        int i = 0;
+        while (i < from.length) {
+            int start = i;
+            while (i < from.length && from[i] == to[i]) {
+                ++i;
+            }
+            length = writeLength(out, length, i - start);
+            start = i;
+            while (i < from.length && from[i] != to[i]) {
+                ++i;
+            }
+            length = writeLength(out, length, i - start);
+            for (int j = start; j < i; ++j) {
+                out[length++] = (byte) (from[j] ^ to[j]);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Applique à l'état donné une différence encodée par encodeDelta, ce qui le transforme en l'autre état
+     * @param delta : la différence encodée
+     * @param length : la longueur de la différence encodée
+     * @param state : l'état modifié
+     */
+    private static void applyDelta(byte[] delta, int length, byte[] state) {
+        int position = 0;
+        int i = 0;
+        while (position < length) {
+            int same = 0;
+            for (int shift = 0; ; shift += LENGTH_7) {
+                byte b = delta[position++];
+                same |= (b & LOW_7_BITS) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            int different = 0;
+            for (int shift = 0; ; shift += LENGTH_7) {
+                byte b = delta[position++];
+                different |= (b & LOW_7_BITS) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            i += same;
+            for (int end = i + different; i < end; ++i) {
+                state[i] ^= delta[position++];
+            }
+        }
+    }
+
+    /**
+     * Écrit une longueur par groupes de 7 bits, du poids faible au poids fort, le bit 8 indiquant qu'un groupe suit
+     * @param out : le tableau recevant la longueur
+     * @param position : la position à laquelle écrire la longueur
+     * @param value : la longueur, positive
+     * @return la position suivant la longueur écrite
+     */
+    private static int writeLength(byte[] out, int position, int value) {
+        while (value > LOW_7_BITS) {
+            out[position++] = (byte) ((value & LOW_7_BITS) | (1 << BIT_8));
+            value >>>= LENGTH_7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+}
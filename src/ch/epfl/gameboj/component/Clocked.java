@@ -12,5 +12,44 @@ public interface Clocked {
     * @param cycle : le cycle d'index donné
     */
     void cycle(long cycle);
+
+    /**
+    * Retourne le prochain cycle, supérieur ou égal au cycle donné, durant lequel le composant
+    * a quelque chose à faire, ou Long.MAX_VALUE s'il n'a rien à faire tant que les autres composants
+    * ne modifient pas son état. Les cycles précédant ce prochain événement peuvent ne pas être simulés,
+    * le composant devant alors rattraper le temps écoulé lors de l'appel suivant à cycle.
+    * Par défaut, le composant doit être piloté à chaque cycle.
+    * @param cycle : le premier cycle pouvant être simulé
+    * @return le cycle du prochain événement du composant
+    */
+    default long nextEventCycle(long cycle) {
+        return cycle;
+    }
+
+    /**
+    * Retourne le prochain cycle, supérieur ou égal au cycle donné, durant lequel le composant pourrait
+    * lever l'une des interruptions données, ou Long.MAX_VALUE s'il ne peut en lever aucune.
+    * Utilisé lorsque le processeur est arrêté : celui-ci ne pouvant alors ni lire ni modifier l'état du composant,
+    * les autres événements de ce dernier peuvent être simulés en bloc lors de l'appel suivant à cycle.
+    * Par défaut, le prochain événement du composant.
+    * @param cycle : le premier cycle pouvant être simulé
+    * @param interrupts : les interruptions qui réveilleraient le processeur, au format du registre IE
+    * @return le cycle de la prochaine interruption que le composant pourrait lever
+    */
+    default long nextInterruptCycle(long cycle, int interrupts) {
+        return nextEventCycle(cycle);
+    }
+
+    /**
+    * Retourne le prochain cycle, supérieur ou égal au cycle donné, à partir duquel la valeur lue dans l'un
+    * des registres du composant pourrait changer sans qu'il soit écrit, ou Long.MAX_VALUE si elle ne peut pas changer.
+    * Un composant qui rattrape son retard lors des accès peut avoir de tels changements entre ses événements.
+    * Par défaut, le prochain événement du composant.
+    * @param cycle : le premier cycle pouvant être simulé
+    * @return le cycle du prochain changement d'état visible du composant
+    */
+    default long nextStateChangeCycle(long cycle) {
+        return nextEventCycle(cycle);
+    }
 }
 
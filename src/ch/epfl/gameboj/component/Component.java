@@ -29,7 +29,18 @@ public interface Component {
      * @throws IllegalArgumentException: si l'adresse n'est pas une valeur 16 bits ou si la donnée n'est pas une valeur 8 bits
      */
     public void write(int address, int data);
-    
+
+    /**
+     * Indique si le composant est susceptible de répondre à une lecture ou à une écriture à l'adresse donnée.
+     * Le bus s'en sert lors de l'attachement pour construire sa table de décodage ; par défaut
+     * le composant est considéré comme présent sur tout l'espace d'adressage
+     * @param address: adresse 16 bits donnée
+     * @return vrai si le composant doit recevoir les accès à cette adresse
+     */
+    public default boolean handlesAddress(int address) {
+        return true;
+    }
+
     /**
      * Attache le composant au bus donné
      * @param bus: bus auquel on va rattacher le composant
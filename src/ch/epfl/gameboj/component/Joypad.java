@@ -2,6 +2,10 @@ package ch.epfl.gameboj.component;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
@@ -12,17 +16,19 @@ import ch.epfl.gameboj.component.cpu.Cpu;
  * @author Vincent Yuan (287639)
  * @author Niels Escarfail (282347)
  */
-public class Joypad implements Component {
+public class Joypad implements Component, Savable {
     private static final int SAVE_4_MSB = 0xF0;
     private static final int TAKE_LINES = 0b00110000;
     private static final int NB_OF_LINES = 2;
     private static final int NB_OF_KEY_IN_A_LINE = 4;
     private static final int LENGTH_4 = 4;
     private static final int LENGTH_6 = 6;
+    private static final int STATE_SIZE = (1 + NB_OF_LINES) * Byte.BYTES;
     
     private final Cpu cpu;
     private int P1;
     private int[] lign;
+    private KeyListener[] keyListeners = new KeyListener[0];
 
     /*
      * Enumération représentant les bits du registre P1
@@ -52,6 +58,19 @@ public class Joypad implements Component {
         }
     }
 
+    /**
+     * Observateur des appuis et relâchements de touches
+     */
+    @FunctionalInterface
+    public interface KeyListener {
+        /**
+         * Appelé après chaque appui ou relâchement d'une touche
+         * @param key : la touche
+         * @param pressed : vrai pour un appui, faux pour un relâchement
+         */
+        void keyChanged(Key key, boolean pressed);
+    }
+
     /**
      * Constructeur du Joypad, qui lui associe le CPU et initialise le tableau représentant les lignes
      * @param cpu: cpu du joypad
@@ -88,7 +107,57 @@ public class Joypad implements Component {
             test(previousP1Value);
         }
     }
-    
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#handlesAddress(int)
+     */
+    @Override
+    public boolean handlesAddress(int address) {
+        return address == AddressMap.REG_P1;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        return STATE_SIZE;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#saveState(java.nio.ByteBuffer)
+     * L'état des touches fait partie de l'état sauvegardé
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) P1);
+        for (int line : lign) {
+            buffer.put((byte) line);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        P1 = Byte.toUnsignedInt(buffer.get());
+        for (int i = 0; i < lign.length; ++i) {
+            lign[i] = Byte.toUnsignedInt(buffer.get());
+        }
+    }
+
+    /**
+     * Ajoute un observateur auquel chaque appui et relâchement de touche est transmis, une fois effectué
+     * @param listener : l'observateur
+     * @throws NullPointerException si l'observateur vaut null
+     */
+    public void addKeyListener(KeyListener listener) {
+        Objects.requireNonNull(listener);
+        keyListeners = Arrays.copyOf(keyListeners, keyListeners.length + 1);
+        keyListeners[keyListeners.length - 1] = listener;
+    }
+
     /**
      * Représente l'appui sur une touche du joypad
      * Modifie le bit représentant la colonne de la clé à la ligne de la clé, puis met à jour le registre P1
@@ -100,6 +169,9 @@ public class Joypad implements Component {
         keyHelper(key, true);  
         updateReg();
         test(previousP1Value);
+        for (KeyListener l : keyListeners) {
+            l.keyChanged(key, true);
+        }
     }
 
     
@@ -111,6 +183,9 @@ public class Joypad implements Component {
     public void keyReleased(Key key) {
         keyHelper(key, false);
         updateReg();
+        for (KeyListener l : keyListeners) {
+            l.keyChanged(key, false);
+        }
     }
 
 
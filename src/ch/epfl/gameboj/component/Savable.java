@@ -0,0 +1,46 @@
+package ch.epfl.gameboj.component;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface chargée de représenter un élément du Game Boy dont l'état peut être sauvegardé dans un tampon d'octets,
+ * puis restauré à l'identique. Seul l'état de la machine est sauvegardé : les caches et les statistiques qui s'en
+ * déduisent sont recalculés ou invalidés lors de la restauration
+ * @author Vincent Yuan (287639)
+ * @author Niels Escarfail (282347)
+ */
+public interface Savable {
+
+    /**
+     * Retourne la taille, en octets, de l'état sauvegardé, qui ne dépend pas de l'état lui-même
+     * @return la taille de l'état sauvegardé
+     */
+    int stateSize();
+
+    /**
+     * Écrit l'état dans le tampon donné, à partir de sa position, qui avance de stateSize() octets
+     * @param buffer : le tampon donné
+     * @throws java.nio.BufferOverflowException s'il reste moins de stateSize() octets dans le tampon
+     */
+    void saveState(ByteBuffer buffer);
+
+    /**
+     * Remplace l'état par celui lu dans le tampon donné, à partir de sa position, qui avance de stateSize() octets.
+     * L'état doit avoir été écrit par saveState sur un élément identique
+     * @param buffer : le tampon donné
+     * @throws java.nio.BufferUnderflowException s'il reste moins de stateSize() octets dans le tampon
+     */
+    void loadState(ByteBuffer buffer);
+
+    /**
+     * Comme loadState, l'état lu ayant été écrit par saveState sur l'élément source donné, identique et toujours dans cet état.
+     * Les mémoires vives peuvent alors partager leurs pages avec celles de la source au lieu d'être lues, voir Ram.shareFrom.
+     * Par défaut, appelle simplement loadState
+     * @param buffer : le tampon donné
+     * @param source : l'élément dont l'état a été sauvegardé, ou null s'il est inconnu
+     * @throws java.nio.BufferUnderflowException s'il reste moins de stateSize() octets dans le tampon
+     */
+    default void loadState(ByteBuffer buffer, Savable source) {
+        loadState(buffer);
+    }
+}
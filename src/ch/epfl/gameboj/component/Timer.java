@@ -2,6 +2,7 @@ package ch.epfl.gameboj.component;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
@@ -9,17 +10,22 @@ import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.cpu.Cpu;
 
 /**
- * Classe chargée de représenter le minuteur du Game Boy
+ * Classe chargée de représenter le minuteur du Game Boy.
+ * Le minuteur est paresseux : cycle ne fait que mémoriser le cycle actuel, et son état n'est rattrapé,
+ * à partir du nombre de cycles écoulés depuis le dernier rattrapage, que lorsque ses registres sont lus ou écrits,
+ * ou lorsque le compteur secondaire déborde, ce cycle étant calculé à l'avance et annoncé comme événement
  * @author Vincent Yuan (287639)
  * @author Niels Escarfail (282347)
  */
-public final class Timer implements Component, Clocked {
+public final class Timer implements Component, Clocked, Savable {
     private Cpu cpu;
     private int mainTimer = 0;
     private int TIMA = 0;
     private int TMA = 0;
     private int TAC = 0;
-    private boolean s0;
+    private long lastCycle = -1;
+    private long currentCycle = -1;
+    private long overflowCycle = Long.MAX_VALUE;
     private static final int BIT_1 = 0;
     private static final int BIT_3 = 2;
     private static final int BIT_4 = 3;
@@ -33,6 +39,7 @@ public final class Timer implements Component, Clocked {
     private static final int LENGTH_16 = 16;
     private static final int MAX8BITS = 0xFF;
     private static final int NB_OF_TIC_IN_A_CYCLE = 4;
+    private static final int STATE_SIZE = Short.BYTES + 3 * Byte.BYTES + 2 * Long.BYTES;
 
     /**
      * Construit un minuteur associé au processeur donné
@@ -46,12 +53,32 @@ public final class Timer implements Component, Clocked {
 
     /* (non-Javadoc)
      * @see ch.epfl.gameboj.component.Clocked#cycle(long)
+     * Seul le débordement du compteur secondaire est simulé ici, le reste de l'état étant rattrapé lors des accès
      */
     @Override
     public void cycle(long cycle) { 
-        s0 = state();
-        mainTimer = Bits.clip(LENGTH_16, (mainTimer + NB_OF_TIC_IN_A_CYCLE));
-        incIfChange(s0);
+        currentCycle = cycle;
+        if (cycle >= overflowCycle) {
+            catchUp();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Clocked#nextEventCycle(long)
+     * Le seul événement du minuteur est le débordement du compteur secondaire, qui lève l'interruption TIMER
+     */
+    @Override
+    public long nextEventCycle(long cycle) {
+        return Math.max(cycle, overflowCycle);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Clocked#nextInterruptCycle(long, int)
+     * Le compteur principal étant rattrapé par cycle, seul le débordement compte, et seulement si l'interruption TIMER est attendue
+     */
+    @Override
+    public long nextInterruptCycle(long cycle, int interrupts) {
+        return Bits.test(interrupts, Cpu.Interrupt.TIMER.index()) ? nextEventCycle(cycle) : Long.MAX_VALUE;
     }
 
     /* (non-Javadoc)
@@ -60,6 +87,9 @@ public final class Timer implements Component, Clocked {
     @Override
     public int read(int address) {
         checkBits16(address);
+        if (handlesAddress(address)) {
+            catchUp();
+        }
         switch (address) {
         case AddressMap.REG_DIV : {
             return Bits.extract(mainTimer, BIT_9, LENGTH_8);
@@ -84,6 +114,9 @@ public final class Timer implements Component, Clocked {
     public void write(int address, int data) {
         checkBits8(data);
         checkBits16(address);
+        if (handlesAddress(address)) {
+            catchUp();
+        }
         switch (address) {
         case AddressMap.REG_DIV : {
             boolean s0 = state();
@@ -102,9 +135,82 @@ public final class Timer implements Component, Clocked {
             incIfChange(s0);
         }   break;
         }
+        overflowCycle = computeOverflowCycle();
         cpu.write(address, data);
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#handlesAddress(int)
+     */
+    @Override
+    public boolean handlesAddress(int address) {
+        return AddressMap.REG_DIV <= address && address <= AddressMap.REG_TAC;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        return STATE_SIZE;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#saveState(java.nio.ByteBuffer)
+     * Le minuteur est d'abord rattrapé, de sorte que l'état sauvegardé ne dépende que du dernier cycle simulé.
+     * Le rattrapage pouvant lever l'interruption TIMER, le processeur doit être sauvegardé après le minuteur
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        catchUp();
+        buffer.putShort((short) mainTimer).put((byte) TIMA).put((byte) TMA).put((byte) TAC);
+        buffer.putLong(lastCycle).putLong(currentCycle);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        mainTimer = Short.toUnsignedInt(buffer.getShort());
+        TIMA = Byte.toUnsignedInt(buffer.get());
+        TMA = Byte.toUnsignedInt(buffer.get());
+        TAC = Byte.toUnsignedInt(buffer.get());
+        lastCycle = buffer.getLong();
+        currentCycle = buffer.getLong();
+        overflowCycle = computeOverflowCycle();
+    }
+
+
+    /**
+     * Rattrape l'état du minuteur jusqu'au dernier cycle donné à cycle : le compteur principal avance de 4 par cycle écoulé,
+     * et le compteur secondaire est incrémenté une fois par changement du bit du compteur principal désigné par TAC,
+     * voir addToTIMA
+     */
+    private void catchUp() {
+        long newMainTimer = mainTimer + (currentCycle - lastCycle) * NB_OF_TIC_IN_A_CYCLE;
+        lastCycle = currentCycle;
+        if (Bits.test(TAC, BIT_3)) {
+            int periodShift = selectedBitIndex() + 1;
+            addToTIMA((newMainTimer >>> periodShift) - (mainTimer >>> periodShift));
+        }
+        mainTimer = Bits.clip(LENGTH_16, (int) newMainTimer);
+        overflowCycle = computeOverflowCycle();
+    }
+
+    /**
+     * Calcule le cycle auquel le compteur secondaire débordera si ses registres ne sont pas modifiés d'ici là
+     * @return le cycle du prochain débordement, ou Long.MAX_VALUE si le minuteur est désactivé
+     */
+    private long computeOverflowCycle() {
+        if (!Bits.test(TAC, BIT_3)) {
+            return Long.MAX_VALUE;
+        }
+        int periodShift = selectedBitIndex() + 1;
+        long incrementsBeforeOverflow = MAX8BITS + 1 - TIMA;
+        long overflowMainTimer = ((mainTimer >>> periodShift) + incrementsBeforeOverflow) << periodShift;
+        return lastCycle + (overflowMainTimer - mainTimer + NB_OF_TIC_IN_A_CYCLE - 1) / NB_OF_TIC_IN_A_CYCLE;
+    }
 
     /**
      * Donne l'etat du minuteur, qui va servir à incrémenter le compteur secondaire
@@ -119,6 +225,14 @@ public final class Timer implements Component, Clocked {
      * @return la valeur du bit du compteur principal
      */
     private int bitToTestExtracter() {
+        return Bits.extract(mainTimer, selectedBitIndex(), LENGTH_1);
+    }
+
+    /**
+     * Donne l'index du bit du compteur principal désigné par les 2 bits de poids faible du registre TAC
+     * @return l'index du bit désigné
+     */
+    private int selectedBitIndex() {
         int bitIndex = BIT_1;
         int indexOfTAC = Bits.clip(LENGTH_2, TAC);
         switch (indexOfTAC) {
@@ -135,7 +249,7 @@ public final class Timer implements Component, Clocked {
             bitIndex = BIT_8;
         } break;
         }
-        return Bits.extract(mainTimer, bitIndex, LENGTH_1);
+        return bitIndex;
     }
 
     /**
@@ -146,11 +260,36 @@ public final class Timer implements Component, Clocked {
      */
     private void incIfChange(boolean previousState) {
         if (previousState && !state()) {
-            TIMA++;
-            if (TIMA > MAX8BITS) {
-                TIMA = TMA;
-                cpu.requestInterrupt(Cpu.Interrupt.TIMER);
-            }
+            incTIMA();
+        }
+    }
+
+    /**
+     * Incrémente le compteur secondaire le nombre de fois donné, sans itérer : après le premier débordement,
+     * il reprend à la valeur stockée dans le registre TMA et parcourt les valeurs de TMA à FF16.
+     * S'il déborde au moins une fois, l'interruption TIMER du processeur est levée, une seule fois
+     * @param increments : le nombre d'incrémentations, positif
+     */
+    private void addToTIMA(long increments) {
+        long incrementsBeforeOverflow = MAX8BITS + 1 - TIMA;
+        if (increments < incrementsBeforeOverflow) {
+            TIMA += (int) increments;
+        }
+        else {
+            TIMA = TMA + (int) ((increments - incrementsBeforeOverflow) % (MAX8BITS + 1 - TMA));
+            cpu.requestInterrupt(Cpu.Interrupt.TIMER);
+        }
+    }
+
+    /**
+     * Incrémente le compteur secondaire. Lorsqu'il déborde, il est réinitialisé à la valeur
+     * stockée dans le registre TMA et l'interruption TIMER du processeur est levée
+     */
+    private void incTIMA() {
+        TIMA++;
+        if (TIMA > MAX8BITS) {
+            TIMA = TMA;
+            cpu.requestInterrupt(Cpu.Interrupt.TIMER);
         }
     }
 }
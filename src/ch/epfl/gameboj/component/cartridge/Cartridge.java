@@ -5,15 +5,22 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Savable;
 import ch.epfl.gameboj.component.memory.Rom;
+import ch.epfl.gameboj.component.memory.RomRepository;
 /**
  * Classe chargée de représenter une cartouche
  * @author Vincent Yuan (287639)
  * @author Niels Escarfail (282347)
  */
-public final class Cartridge implements Component {
+public final class Cartridge implements Component, Savable {
 	private final Component component;
+	private final Rom rom;
 	private static final int CARTRIDGE_TYPE_ADDRESS = 0x147;
 	private static final int[] RAM_SIZE = {0, 2048, 8192, 32768};
 	private static final int RAM_SIZE_BYTE = 0x149;
@@ -23,39 +30,81 @@ public final class Cartridge implements Component {
  	* Construit une cartouche contenant un contrôleur et la mémoire morte qui lui est attachée.
  	* Ne lance pas de NullPointerException car cela est fait dans mbc0.
  	* @param component : un controleur de banque mémoire
+ 	* @param rom : la mémoire morte attachée au contrôleur
  	*/
-	private Cartridge(Component component) {
+	private Cartridge(Component component, Rom rom) {
     	this.component = component;
+    	this.rom = rom;
 	}
 	
 	/**
- 	* Retourne une cartouche dont la mémoire morte contient les octets du fichier donné. 
+ 	* Retourne une cartouche dont la mémoire morte contient les octets du fichier donné. 
+ 	* La mémoire morte, immuable, est partagée avec les autres cartouches de même contenu, voir RomRepository
  	* @param romFile : le fichier dont on tire les octets
  	* @throws IOException en cas d'erreur d'entrée-sortie, ou si le fichier donné n'existe pas
  	* @throws IllegalArgumentException si le fichier en question ne contient pas 0 à la position 0x147
  	* @return une cartouche dont la mémoire morte contient les octets du fichier donné.
  	*/
 	public static Cartridge ofFile(File romFile) throws IOException {
-    	byte[] romBytes;
+	    return ofFile(romFile, false);
+	}
+	
+	/**
+ 	* Retourne une cartouche dont la mémoire morte contient les octets du fichier donné, lus comme par ofFile(File),
+ 	* ou projetés en mémoire si demandé. Une mémoire morte projetée est créée en un temps quasi constant, ses octets
+ 	* n'étant lus qu'à leur premier accès, et partagée par le cache du système avec les autres processus utilisant le même fichier.
+ 	* Le fichier ne doit alors pas être modifié tant que la cartouche est utilisée
+ 	* @param romFile : le fichier dont on tire les octets
+ 	* @param mapped : vrai pour projeter le fichier en mémoire (FileChannel.map) plutôt que de le lire
+ 	* @throws IOException en cas d'erreur d'entrée-sortie, ou si le fichier donné n'existe pas
+ 	* @throws IllegalArgumentException si le fichier en question ne contient pas 0 à la position 0x147
+ 	* @return une cartouche dont la mémoire morte contient les octets du fichier donné.
+ 	*/
+	public static Cartridge ofFile(File romFile, boolean mapped) throws IOException {
     	if(romFile.equals(null)) {
         	throw new IOException();
     	}
-    	try(InputStream is = new FileInputStream(romFile)) {
-        	romBytes = new byte[(int) romFile.length()];
-        	romBytes = is.readAllBytes();
+    	Rom rom;
+    	if (mapped) {
+    	    try (FileChannel channel = FileChannel.open(romFile.toPath(), StandardOpenOption.READ)) {
+    	        rom = Rom.ofBuffer(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+    	    }
+    	}
+    	else {
+    	    try(InputStream is = new FileInputStream(romFile)) {
+    	        rom = RomRepository.shared().intern(is.readAllBytes());
+    	    }
     	}
-    	Rom rom = new Rom(romBytes);
-    	int romType = romBytes[CARTRIDGE_TYPE_ADDRESS];
+    	return ofRom(rom);
+	}
+	
+	/**
+ 	* Retourne une nouvelle cartouche ayant la même mémoire morte que celle-ci, partagée car immuable,
+ 	* et un contrôleur de même type dans son état initial, comme si le fichier venait d'être chargé
+ 	* @return une nouvelle cartouche de même contenu
+ 	*/
+	public Cartridge withSameRom() {
+	    return ofRom(rom);
+	}
+	
+	/**
+ 	* Retourne une cartouche dont la mémoire morte est celle donnée, le contrôleur étant choisi selon son en-tête
+ 	* @param rom : la mémoire morte
+ 	* @throws IllegalArgumentException si la mémoire morte ne contient pas 0 à 3 à la position 0x147
+ 	* @return une cartouche dont la mémoire morte est celle donnée
+ 	*/
+	private static Cartridge ofRom(Rom rom) {
+    	int romType = rom.read(CARTRIDGE_TYPE_ADDRESS);
     	Component mbc;
     	if (romType == 0)
         	mbc = new MBC0(rom);
     	else if (romType <= NB_OF_MBC1_ROM_TYPE && romType > 0) {
-    	    int ramSizeValue = romBytes[RAM_SIZE_BYTE];
+    	    int ramSizeValue = rom.read(RAM_SIZE_BYTE);
         	mbc = new MBC1(rom, RAM_SIZE[ramSizeValue]);
     	}
     	else
         	throw new IllegalArgumentException();
-    	return new Cartridge(mbc);
+    	return new Cartridge(mbc, rom);
 	}
 	/* (non-Javadoc)
  	* @see ch.epfl.gameboj.component.Component#read(int)
@@ -76,5 +125,50 @@ public final class Cartridge implements Component {
     	checkBits8(data);
     	component.write(address, data);
 	}
+
+	/* (non-Javadoc)
+ 	* @see ch.epfl.gameboj.component.Component#handlesAddress(int)
+ 	*/
+	@Override
+	public boolean handlesAddress(int address) {
+	    return component.handlesAddress(address);
+	}
+
+	/* (non-Javadoc)
+ 	* @see ch.epfl.gameboj.component.Savable#stateSize()
+ 	* Seul le contrôleur de banque mémoire a un état (registres et mémoire vive de la cartouche), la mémoire morte étant constante
+ 	*/
+	@Override
+	public int stateSize() {
+	    return (component instanceof Savable) ? ((Savable) component).stateSize() : 0;
+	}
+
+	/* (non-Javadoc)
+ 	* @see ch.epfl.gameboj.component.Savable#saveState(java.nio.ByteBuffer)
+ 	*/
+	@Override
+	public void saveState(ByteBuffer buffer) {
+	    if (component instanceof Savable) {
+	        ((Savable) component).saveState(buffer);
+	    }
+	}
+
+	/* (non-Javadoc)
+ 	* @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer)
+ 	*/
+	@Override
+	public void loadState(ByteBuffer buffer) {
+	    loadState(buffer, null);
+	}
+
+	/* (non-Javadoc)
+ 	* @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer, ch.epfl.gameboj.component.Savable)
+ 	*/
+	@Override
+	public void loadState(ByteBuffer buffer, Savable source) {
+	    if (component instanceof Savable) {
+	        ((Savable) component).loadState(buffer, (source == null) ? null : (Savable) ((Cartridge) source).component);
+	    }
+	}
 }
 
@@ -51,6 +51,14 @@ public final class MBC0 implements Component {
     public void write(int address, int data) {
         return;
     }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#handlesAddress(int)
+     */
+    @Override
+    public boolean handlesAddress(int address) {
+        return (0 <= address) && (address < CARTRIDGE_ROM_SIZE);
+    }
 }
 
 
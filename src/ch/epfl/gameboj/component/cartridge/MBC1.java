@@ -3,13 +3,17 @@ package ch.epfl.gameboj.component.cartridge;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
+
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Savable;
 import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.Rom;
 
-public final class MBC1 implements Component {
+public final class MBC1 implements Component, Savable {
     private static final int RAM_ENABLE = 0xA;
+    private static final int REGISTERS_SIZE = 4;
 
     private enum Mode { MODE_0, MODE_1 };
 
@@ -70,6 +74,58 @@ public final class MBC1 implements Component {
         }
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#handlesAddress(int)
+     */
+    @Override
+    public boolean handlesAddress(int address) {
+        switch (Bits.extract(address, 13, 3)) {
+        case 0: case 1: case 2: case 3: case 5:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        return REGISTERS_SIZE + ram.stateSize();
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#saveState(java.nio.ByteBuffer)
+     * Les registres du contrôleur sont sauvegardés avant la mémoire vive de la cartouche
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) (ramEnabled ? 1 : 0)).put((byte) mode.ordinal()).put((byte) romLsb5).put((byte) ramRom2);
+        ram.saveState(buffer);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        loadState(buffer, null);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer, ch.epfl.gameboj.component.Savable)
+     * La mémoire vive de la cartouche partage ses pages avec celle de la source
+     */
+    @Override
+    public void loadState(ByteBuffer buffer, Savable source) {
+        ramEnabled = buffer.get() != 0;
+        mode = Mode.values()[buffer.get()];
+        romLsb5 = buffer.get();
+        ramRom2 = buffer.get();
+        ram.loadState(buffer, (source == null) ? null : ((MBC1) source).ram);
+    }
+
     private int msb2() {
         switch (mode) {
         case MODE_0: return 0;
@@ -0,0 +1,153 @@
+package ch.epfl.gameboj.component.cpu;
+
+import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.cpu.Alu.RotDir;
+
+/**
+ * Variante de l'Alu utilisée par le processeur pour les opérations 8 bits dont le calcul des fanions est coûteux.
+ * Si la propriété système gameboj.aluTables vaut true, les paquets valeur/fanions sont lus dans des tables
+ * précalculées au chargement de la classe à l'aide de l'Alu elle-même, ce qui garantit des résultats identiques.
+ * Sinon, chaque méthode délègue simplement à la méthode correspondante de l'Alu.
+ * Contrairement à l'Alu, les arguments ne sont pas vérifiés : le processeur ne lui passe que des valeurs 8 bits
+ * @author Vincent Yuan (287639)
+ * @author Niels Escarfail (282347)
+ */
+final class AluTables {
+
+    /**
+     * Vrai ssi les tables précalculées sont utilisées
+     */
+    static final boolean ENABLED = Boolean.getBoolean("gameboj.aluTables");
+
+    private static final int LENGTH_8 = 8;
+    private static final int BIT_9 = 8;
+    private static final int BIT_10 = 9;
+    private static final int BIT_11 = 10;
+    private static final int BIT_17 = 16;
+    private static final int VALUES_8 = 1 << LENGTH_8;
+
+    private AluTables() {}
+
+    /**
+     * Tables des paquets valeur/fanions, chacun tenant sur 16 bits. Les tables binaires sont indexées
+     * par la retenue (bit 16), l'opérande de gauche (bits 8 à 15) et celle de droite (bits 0 à 7)
+     */
+    static final class Tables {
+        static final short[] ADD = new short[2 * VALUES_8 * VALUES_8];
+        static final short[] SUB = new short[2 * VALUES_8 * VALUES_8];
+        static final short[] ROTATE = new short[2 * VALUES_8];
+        static final short[] ROTATE_CARRY = new short[4 * VALUES_8];
+        static final short[] SHIFT_LEFT = new short[VALUES_8];
+        static final short[] SHIFT_RIGHT_A = new short[VALUES_8];
+        static final short[] SHIFT_RIGHT_L = new short[VALUES_8];
+        static final short[] SWAP = new short[VALUES_8];
+        static final short[] BCD_ADJUST = new short[8 * VALUES_8];
+
+        static {
+            for (int l = 0; l < VALUES_8; ++l) {
+                for (int r = 0; r < VALUES_8; ++r) {
+                    for (int c = 0; c < 2; ++c) {
+                        ADD[binaryIndex(l, r, c == 1)] = (short) Alu.add(l, r, c == 1);
+                        SUB[binaryIndex(l, r, c == 1)] = (short) Alu.sub(l, r, c == 1);
+                    }
+                }
+                for (RotDir d : RotDir.values()) {
+                    ROTATE[rotateIndex(d, l)] = (short) Alu.rotate(d, l);
+                    ROTATE_CARRY[rotateIndex(d, l, false)] = (short) Alu.rotate(d, l, false);
+                    ROTATE_CARRY[rotateIndex(d, l, true)] = (short) Alu.rotate(d, l, true);
+                }
+                SHIFT_LEFT[l] = (short) Alu.shiftLeft(l);
+                SHIFT_RIGHT_A[l] = (short) Alu.shiftRightA(l);
+                SHIFT_RIGHT_L[l] = (short) Alu.shiftRightL(l);
+                SWAP[l] = (short) Alu.swap(l);
+                for (int nhc = 0; nhc < 8; ++nhc) {
+                    boolean n = Bits.test(nhc, 2), h = Bits.test(nhc, 1), c = Bits.test(nhc, 0);
+                    BCD_ADJUST[bcdAdjustIndex(l, n, h, c)] = (short) Alu.bcdAdjust(l, n, h, c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Voir Alu.add(int, int, boolean)
+     */
+    static int add(int l, int r, boolean c0) {
+        return ENABLED ? Short.toUnsignedInt(Tables.ADD[binaryIndex(l, r, c0)]) : Alu.add(l, r, c0);
+    }
+
+    /**
+     * Voir Alu.sub(int, int, boolean)
+     */
+    static int sub(int l, int r, boolean b0) {
+        return ENABLED ? Short.toUnsignedInt(Tables.SUB[binaryIndex(l, r, b0)]) : Alu.sub(l, r, b0);
+    }
+
+    /**
+     * Voir Alu.bcdAdjust(int, boolean, boolean, boolean)
+     */
+    static int bcdAdjust(int v, boolean n, boolean h, boolean c) {
+        return ENABLED ? Short.toUnsignedInt(Tables.BCD_ADJUST[bcdAdjustIndex(v, n, h, c)]) : Alu.bcdAdjust(v, n, h, c);
+    }
+
+    /**
+     * Voir Alu.rotate(RotDir, int)
+     */
+    static int rotate(RotDir d, int v) {
+        return ENABLED ? Short.toUnsignedInt(Tables.ROTATE[rotateIndex(d, v)]) : Alu.rotate(d, v);
+    }
+
+    /**
+     * Voir Alu.rotate(RotDir, int, boolean)
+     */
+    static int rotate(RotDir d, int v, boolean c) {
+        return ENABLED ? Short.toUnsignedInt(Tables.ROTATE_CARRY[rotateIndex(d, v, c)]) : Alu.rotate(d, v, c);
+    }
+
+    /**
+     * Voir Alu.shiftLeft(int)
+     */
+    static int shiftLeft(int v) {
+        return ENABLED ? Short.toUnsignedInt(Tables.SHIFT_LEFT[v]) : Alu.shiftLeft(v);
+    }
+
+    /**
+     * Voir Alu.shiftRightA(int)
+     */
+    static int shiftRightA(int v) {
+        return ENABLED ? Short.toUnsignedInt(Tables.SHIFT_RIGHT_A[v]) : Alu.shiftRightA(v);
+    }
+
+    /**
+     * Voir Alu.shiftRightL(int)
+     */
+    static int shiftRightL(int v) {
+        return ENABLED ? Short.toUnsignedInt(Tables.SHIFT_RIGHT_L[v]) : Alu.shiftRightL(v);
+    }
+
+    /**
+     * Voir Alu.swap(int)
+     */
+    static int swap(int v) {
+        return ENABLED ? Short.toUnsignedInt(Tables.SWAP[v]) : Alu.swap(v);
+    }
+
+    //Index d'une opération binaire avec retenue dans les tables ADD et SUB
+    static int binaryIndex(int l, int r, boolean c) {
+        return (c ? 1 << BIT_17 : 0) | (l << LENGTH_8) | r;
+    }
+
+    //Index d'une rotation dans la table ROTATE
+    static int rotateIndex(RotDir d, int v) {
+        return (d.ordinal() << LENGTH_8) | v;
+    }
+
+    //Index d'une rotation à travers la retenue dans la table ROTATE_CARRY
+    static int rotateIndex(RotDir d, int v, boolean c) {
+        return (d.ordinal() << BIT_10) | (c ? 1 << BIT_9 : 0) | v;
+    }
+
+    //Index d'un ajustement DCB dans la table BCD_ADJUST
+    static int bcdAdjustIndex(int v, boolean n, boolean h, boolean c) {
+        return (n ? 1 << BIT_11 : 0) | (h ? 1 << BIT_10 : 0) | (c ? 1 << BIT_9 : 0) | v;
+    }
+}
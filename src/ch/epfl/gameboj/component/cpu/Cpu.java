@@ -2,6 +2,8 @@ package ch.epfl.gameboj.component.cpu;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
+
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Register;
@@ -10,6 +12,7 @@ import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Savable;
 import ch.epfl.gameboj.component.cpu.Alu.RotDir;
 import ch.epfl.gameboj.component.memory.Ram;
 /**
@@ -17,18 +20,34 @@ import ch.epfl.gameboj.component.memory.Ram;
  * @author Vincent Yuan (287639)
  * @author Niels Escarfail (282347)
  */
-public final class Cpu implements Component, Clocked {
+public final class Cpu implements Component, Clocked, Savable {
     private Ram highRam = new Ram(AddressMap.HIGH_RAM_SIZE);
     private int PC;
     private int SP;
     private long nextNonIdleCycle;
+    private int nextPC;
     private Bus bus;
     private int IE;
     public int IF;
     private boolean IME;
     private RegisterFile<Register> regFile = new RegisterFile<>(Reg.values());
+    private LazyOp lazyOp = LazyOp.NONE;
+    private int lazyLeft;
+    private int lazyRight;
+    private boolean lazyCarry;
+    private int lazyResult;
+    private int writeCount;
+    private int loopAddress = NO_ADDRESS;
+    private int idleAddress = NO_ADDRESS;
+    private int idleWriteCount;
+    private long idleState;
+    private long idleCycle;
+    private long idleHorizon;
     private static final Opcode[] DIRECT_OPCODE_TABLE = buildOpcodeTable(Opcode.Kind.DIRECT);
     private static final Opcode[] PREFIXED_OPCODE_TABLE = buildOpcodeTable(Opcode.Kind.PREFIXED);
+    private static final Handler[] DIRECT_HANDLER_TABLE = buildHandlerTable(Opcode.Kind.DIRECT);
+    private static final Handler[] PREFIXED_HANDLER_TABLE = buildHandlerTable(Opcode.Kind.PREFIXED);
+    private static final Reg[] REGS = Reg.values();
     private static final int BIT_1 = 0;
     private static final int BIT_4 = 3;
     private static final int BIT_5 = 4;
@@ -40,8 +59,12 @@ public final class Cpu implements Component, Clocked {
     private static final int LENGTH_8 = 8;
     private static final int LENGTH_16 = 16;
     private static final int NB_OF_OPCODE = 256;
+    private static final int MAX_IDLE_LOOP_LENGTH = 16;
+    private static final int NO_ADDRESS = -1;
     private static final int PREFIXED_OPCODE_ENCODING = 0xCB;
     private static final int NNIC_INCREMENTATION_IF_INTERRUPTION = 5;
+    private static final long NO_HORIZON = Long.MIN_VALUE;
+    private static final int STATE_SIZE = 2 * Short.BYTES + 2 * Long.BYTES + 3 * Byte.BYTES + AddressMap.HIGH_RAM_SIZE;
     enum Reg implements Register {
         A, F, B, C, D, E, H, L
     }
@@ -57,10 +80,30 @@ public final class Cpu implements Component, Clocked {
     private enum FlagSrc {
         V0, V1, ALU, CPU
     }
+
+    /**
+     * Opération de l'Alu dont les fanions n'ont pas encore été calculés, voir deferFlags.
+     * INC et DEC conservent le fanion C précédent
+     */
+    private enum LazyOp {
+        NONE(false), ADD(false), SUB(false), AND(false), OR(false), XOR(false), INC(true), DEC(true);
+        private final boolean keepsCarry;
+        private LazyOp(boolean keepsCarry) {
+            this.keepsCarry = keepsCarry;
+        }
+    }
     public enum Interrupt implements Bit {
         VBLANK, LCD_STAT, TIMER, SERIAL, JOYPAD
     }
 
+    /**
+     * Traitement d'une instruction dont les opérandes ont été extraits de l'opcode une fois pour toutes
+     */
+    @FunctionalInterface
+    private interface Handler {
+        void execute(Cpu cpu);
+    }
+
     /**
      * Construit un tableau de familles indexé par les 256 opcodes possibles
      * @param kind : la famille voulue pour le tableau créé
@@ -82,22 +125,45 @@ public final class Cpu implements Component, Clocked {
      */
     @Override
     public void cycle(long cycle) {
+        cycle(cycle, NO_HORIZON);
+    }
+
+    /**
+     * Comme cycle(long), mais permet au processeur de sauter les itérations d'une boucle d'attente active
+     * qui précèdent le cycle donné, avant lequel l'état visible des autres composants ne change pas, voir skipIdleLoop
+     * @param cycle : le cycle actuel
+     * @param horizon : le cycle auquel a lieu le prochain changement d'état visible des autres composants
+     */
+    public void cycle(long cycle, long horizon) {
         if (nextNonIdleCycle == Long.MAX_VALUE && ((IE & IF) != 0)) {
             nextNonIdleCycle = cycle;
-            reallyCycle();
+            reallyCycle(horizon);
         }
         if (cycle == nextNonIdleCycle) {
-            reallyCycle();
+            reallyCycle(horizon);
         }
         return;
     }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Clocked#nextEventCycle(long)
+     * Un processeur arrêté par HALT n'a rien à faire tant qu'aucune interruption n'est en attente
+     */
+    @Override
+    public long nextEventCycle(long cycle) {
+        if (nextNonIdleCycle == Long.MAX_VALUE) {
+            return ((IE & IF) != 0) ? cycle : Long.MAX_VALUE;
+        }
+        return Math.max(cycle, nextNonIdleCycle);
+    }
     
     /**
      * Regarde si les interruptions sont activées et si une interruption est en attente,
-     * auquel cas elle la gère ; sinon, elle exécute normalement la prochaine instruction.
+     * auquel cas elle la gère ; sinon, elle exécute normalement la prochaine instruction,
+     * à moins de sauter les itérations d'une boucle d'attente active qui précèdent l'horizon donné
+     * @param horizon : le cycle auquel a lieu le prochain changement d'état visible des autres composants
      */
-    private void reallyCycle() {
-        Opcode opcode;
+    private void reallyCycle(long horizon) {
         if (toInterrupt()) {
             IME = false;
             int i = getInterruptIndex();
@@ -107,14 +173,174 @@ public final class Cpu implements Component, Clocked {
             nextNonIdleCycle += NNIC_INCREMENTATION_IF_INTERRUPTION;                                                                          
         }
         else {
+            if (PC == loopAddress && skipIdleLoop(horizon)) {
+                return;
+            }
+            int pc = PC;
             int pcVal = read8(PC);
             if (pcVal == PREFIXED_OPCODE_ENCODING) {
-                opcode = PREFIXED_OPCODE_TABLE[read8AfterOpcode()];
+                int encoding = read8AfterOpcode();
+                dispatch(PREFIXED_OPCODE_TABLE[encoding], PREFIXED_HANDLER_TABLE[encoding]);
             }
             else {
-                opcode = DIRECT_OPCODE_TABLE[read8(PC)];
+                dispatch(DIRECT_OPCODE_TABLE[pcVal], DIRECT_HANDLER_TABLE[pcVal]);
+            }
+            if (PC <= pc) {
+                loopAddress = PC;
+            }
+        }
+    }
+
+    /**
+     * Saute les itérations de la boucle d'attente active qui commence à PC précédant l'horizon donné.
+     * PC est l'adresse atteinte par le dernier retour en arrière ; la boucle est comparée à son itération précédente.
+     * Tant que l'état visible des autres composants ne change pas, les registres d'entrée/sortie (hormis ceux du minuteur,
+     * exclus) et la mémoire lus par la boucle ne changent pas : si une itération complète, sans événement ni écriture
+     * depuis son début, a laissé les registres inchangés, les suivantes les laissent aussi inchangés, et seul le temps passe
+     * @param horizon : le cycle auquel a lieu le prochain changement d'état visible des autres composants
+     * @return vrai si des itérations ont été sautées
+     */
+    private boolean skipIdleLoop(long horizon) {
+        if (horizon <= nextNonIdleCycle) {
+            return false;
+        }
+        materializeFlags();
+        long state = registersState();
+        boolean idle = PC == idleAddress && state == idleState && writeCount == idleWriteCount
+                && nextNonIdleCycle < idleHorizon;
+        long previousCycle = idleCycle;
+        idleAddress = PC;
+        idleState = state;
+        idleWriteCount = writeCount;
+        idleCycle = nextNonIdleCycle;
+        idleHorizon = horizon;
+        if (!idle) {
+            return false;
+        }
+        int loopCycles = idleLoopCycles(PC);
+        if (loopCycles == 0 || nextNonIdleCycle != previousCycle + loopCycles) {
+            return false;
+        }
+        long iterations = (horizon - 1 - nextNonIdleCycle) / loopCycles;
+        if (iterations == 0) {
+            return false;
+        }
+        nextNonIdleCycle += iterations * loopCycles;
+        idleCycle = nextNonIdleCycle;
+        return true;
+    }
+
+    /**
+     * Donne la valeur des 8 registres de 8 bits, empaquetés dans cet ordre : A, F, B, C, D, E, H, L
+     * @return la valeur des registres, les fanions devant avoir été calculés
+     */
+    private long registersState() {
+        long state = 0;
+        for (Reg r : REGS) {
+            state = (state << Byte.SIZE) | regFile.get(r);
+        }
+        return state;
+    }
+
+    /**
+     * Lit depuis le bus et décode les instructions à partir de l'adresse donnée, et détermine si elles forment
+     * une boucle d'attente active : au plus MAX_IDLE_LOOP_LENGTH instructions ne faisant que lire la mémoire,
+     * hors registres du minuteur (qui évoluent entre ses événements), et modifier A et F, suivies d'un saut au début.
+     * Les registres B à L étant inchangés par la boucle, leur valeur actuelle donne les adresses lues
+     * @param address : adresse de la première instruction de la boucle
+     * @return la durée d'une itération de la boucle, en cycles, ou 0 si ce n'en est pas une
+     */
+    private int idleLoopCycles(int address) {
+        int pc = address;
+        int cycles = 0;
+        for (int i = 0; i < MAX_IDLE_LOOP_LENGTH; ++i) {
+            Opcode opcode = opcodeAt(pc);
+            cycles += opcode.cycles;
+            if (!onlyReadsAndChangesA(opcode)) {
+                return (jumpTarget(opcode, pc) == address) ? cycles + opcode.additionalCycles : 0;
+            }
+            int readAddress = readAddress(opcode, pc);
+            if (AddressMap.REG_DIV <= readAddress && readAddress <= AddressMap.REG_TAC) {
+                return 0;
             }
-            dispatch(opcode);
+            pc = Bits.clip(LENGTH_16, pc + opcode.totalBytes);
+        }
+        return 0;
+    }
+
+    /**
+     * Lit depuis le bus et décode l'instruction commençant à l'adresse donnée
+     * @param address : adresse de l'instruction
+     * @return l'instruction
+     */
+    private Opcode opcodeAt(int address) {
+        int encoding = read8(address);
+        if (encoding == PREFIXED_OPCODE_ENCODING) {
+            return PREFIXED_OPCODE_TABLE[read8(Bits.clip(LENGTH_16, address + 1))];
+        }
+        return DIRECT_OPCODE_TABLE[encoding];
+    }
+
+    /**
+     * Donne l'adresse lue en mémoire par l'instruction donnée, dans l'état actuel des registres
+     * @param opcode : l'instruction, ne faisant au plus que lire la mémoire et modifier A et F
+     * @param address : adresse de l'instruction
+     * @return l'adresse lue, ou NO_ADDRESS si l'instruction ne lit pas la mémoire
+     */
+    private int readAddress(Opcode opcode, int address) {
+        switch (opcode.family) {
+        case LD_A_N8R:
+            return AddressMap.REGS_START + read8(Bits.clip(LENGTH_16, address + 1));
+        case LD_A_N16R:
+            return read16(Bits.clip(LENGTH_16, address + 1));
+        case LD_A_CR:
+            return AddressMap.REGS_START + regFile.get(Reg.C);
+        case LD_A_BCR:
+            return reg16(Reg16.BC);
+        case LD_A_DER:
+            return reg16(Reg16.DE);
+        case LD_R8_HLR: case ADD_A_HLR: case SUB_A_HLR: case CP_A_HLR:
+        case AND_A_HLR: case OR_A_HLR: case XOR_A_HLR: case BIT_U3_HLR:
+            return reg16(Reg16.HL);
+        default:
+            return NO_ADDRESS;
+        }
+    }
+
+    /**
+     * Donne l'adresse à laquelle saute l'instruction donnée, si c'est un saut direct
+     * @param opcode : l'instruction
+     * @param address : adresse de l'instruction
+     * @return l'adresse de destination du saut, ou NO_ADDRESS si l'instruction n'est pas un saut direct
+     */
+    private int jumpTarget(Opcode opcode, int address) {
+        switch (opcode.family) {
+        case JR_E8: case JR_CC_E8:
+            return Bits.clip(LENGTH_16, address + opcode.totalBytes + Bits.signExtend8(read8(Bits.clip(LENGTH_16, address + 1))));
+        case JP_N16: case JP_CC_N16:
+            return read16(Bits.clip(LENGTH_16, address + 1));
+        default:
+            return NO_ADDRESS;
+        }
+    }
+
+    /**
+     * Détermine si l'instruction donnée ne fait, au plus, que lire la mémoire et modifier les registres A et F
+     * @param opcode : l'instruction donnée
+     * @return vrai si l'instruction n'a pas d'autre effet
+     */
+    private static boolean onlyReadsAndChangesA(Opcode opcode) {
+        switch (opcode.family) {
+        case NOP: case LD_A_N8R: case LD_A_CR: case LD_A_N16R: case LD_A_BCR: case LD_A_DER:
+        case ADD_A_R8: case ADD_A_N8: case ADD_A_HLR: case SUB_A_R8: case SUB_A_N8: case SUB_A_HLR:
+        case CP_A_R8: case CP_A_N8: case CP_A_HLR: case AND_A_R8: case AND_A_N8: case AND_A_HLR:
+        case OR_A_R8: case OR_A_N8: case OR_A_HLR: case XOR_A_R8: case XOR_A_N8: case XOR_A_HLR:
+        case BIT_U3_R8: case BIT_U3_HLR: case ROTCA: case ROTA: case DAA: case CPL: case SCCF:
+            return true;
+        case LD_R8_HLR: case LD_R8_N8: case LD_R8_R8: case INC_R8: case DEC_R8:
+            return extractReg(opcode, BIT_4) == Reg.A;
+        default:
+            return false;
         }
     }
 
@@ -156,6 +382,14 @@ public final class Cpu implements Component, Clocked {
         }
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#handlesAddress(int)
+     */
+    @Override
+    public boolean handlesAddress(int address) {
+        return address == AddressMap.REG_IE || address == AddressMap.REG_IF || toUseHighRamCondition(address);
+    }
+
     /* (non-Javadoc)
      * @see ch.epfl.gameboj.component.Component#attachTo(ch.epfl.gameboj.Bus)
      */
@@ -165,6 +399,57 @@ public final class Cpu implements Component, Clocked {
         Component.super.attachTo(bus);
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        return STATE_SIZE;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#saveState(java.nio.ByteBuffer)
+     * Les fanions sont calculés avant d'être sauvegardés avec les autres registres
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        materializeFlags();
+        buffer.putShort((short) PC).putShort((short) SP).putLong(nextNonIdleCycle).putLong(registersState());
+        buffer.put((byte) IE).put((byte) IF).put((byte) (IME ? 1 : 0));
+        highRam.saveState(buffer);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer)
+     * La boucle d'attente active en cours d'observation est abandonnée
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        loadState(buffer, null);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer, ch.epfl.gameboj.component.Savable)
+     * La mémoire haute partage ses pages avec celle de la source
+     */
+    @Override
+    public void loadState(ByteBuffer buffer, Savable source) {
+        PC = Short.toUnsignedInt(buffer.getShort());
+        SP = Short.toUnsignedInt(buffer.getShort());
+        nextNonIdleCycle = buffer.getLong();
+        long registers = buffer.getLong();
+        for (int i = REGS.length - 1; i >= 0; --i) {
+            regFile.set(REGS[i], Bits.clip(LENGTH_8, (int) registers));
+            registers >>>= Byte.SIZE;
+        }
+        IE = Byte.toUnsignedInt(buffer.get());
+        IF = Byte.toUnsignedInt(buffer.get());
+        IME = buffer.get() != 0;
+        highRam.loadState(buffer, (source == null) ? null : ((Cpu) source).highRam);
+        lazyOp = LazyOp.NONE;
+        idleAddress = NO_ADDRESS;
+    }
+
     /**
      * methode dont le seul but est de faciliter les tests
      * @return un tableau contenant, dans l'ordre, la valeur des registres PC, SP, A, F, B, C, D, E, H et L.
@@ -174,6 +459,7 @@ public final class Cpu implements Component, Clocked {
         regValTable[0] = PC;
         regValTable[1] = SP;
         regValTable[2] = regFile.get(Reg.A);
+        materializeFlags();
         regValTable[3] = regFile.get(Reg.F);
         regValTable[4] = regFile.get(Reg.B);
         regValTable[5] = regFile.get(Reg.C);
@@ -185,360 +471,436 @@ public final class Cpu implements Component, Clocked {
     }
 
     /**
-     * Etant donné un octet contenant un opcode, exécute l'instruction correspondante
+     * Etant donné un opcode et son traitement pré-décodé, exécute l'instruction correspondante
      * @param opcode : un opcode portant une instruction
+     * @param handler : le traitement de l'opcode, dont les opérandes ont déjà été extraits
      */
-    private void dispatch(Opcode opcode) {
-        int nextPC = PC + opcode.totalBytes;
+    private void dispatch(Opcode opcode, Handler handler) {
+        nextPC = PC + opcode.totalBytes;
         nextNonIdleCycle += opcode.cycles;
+        handler.execute(this);
+        PC = nextPC;
+    }
+
+    /**
+     * Construit un tableau des traitements indexé par les 256 opcodes possibles du type donné
+     * @param kind : le type d'opcode voulu pour le tableau créé
+     * @return handlerTable : un tableau des traitements pré-décodés indexé par les 256 opcodes possibles
+     */
+    private static Handler[] buildHandlerTable(Opcode.Kind kind) {
+        Handler[] handlerTable = new Handler[NB_OF_OPCODE];
+        for (Opcode o : Opcode.values()) {
+            if (o.kind.equals(kind)) {
+                handlerTable[o.encoding] = decode(o);
+            }
+        }
+        return handlerTable;
+    }
+
+    /**
+     * Décode une fois pour toutes l'opcode donné : extrait ses opérandes (registres, index de bit,
+     * condition, etc.) de son encodage et retourne le traitement spécialisé correspondant
+     * @param opcode : un opcode portant une instruction
+     * @return le traitement de l'instruction, opérandes liés
+     */
+    private static Handler decode(Opcode opcode) {
         switch(opcode.family) {
         case NOP: { //No operation
-        } break;
+            return cpu -> {};
+        }
         // instructions de chargement
         case LD_R8_HLR : {
-            Reg opcodeReg = extractReg(opcode, 3);
-            regFile.set(opcodeReg, read8AtHl());
-        } break;
+            Reg opcodeReg = extractReg(opcode, BIT_4);
+            return cpu -> cpu.regFile.set(opcodeReg, cpu.read8AtHl());
+        }
         case LD_A_HLRU : {
-            regFile.set(Reg.A, read8AtHl());
-            setReg16(Reg16.HL, Bits.clip(LENGTH_16, reg16(Reg16.HL) + extractHlIncrement(opcode)));
-        } break;
+            int hlIncrement = extractHlIncrement(opcode);
+            return cpu -> {
+                cpu.regFile.set(Reg.A, cpu.read8AtHl());
+                cpu.setReg16(Reg16.HL, Bits.clip(LENGTH_16, cpu.reg16(Reg16.HL) + hlIncrement));
+            };
+        }
         case LD_A_N8R: {
-            regFile.set(Reg.A, read8(AddressMap.REGS_START + read8AfterOpcode()));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.read8(AddressMap.REGS_START + cpu.read8AfterOpcode()));
+        }
         case LD_A_CR: {
-            regFile.set(Reg.A, read8(AddressMap.REGS_START + regFile.get(Reg.C)));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.read8(AddressMap.REGS_START + cpu.regFile.get(Reg.C)));
+        }
         case LD_A_N16R: {
-            regFile.set(Reg.A, read8(read16AfterOpcode()));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.read8(cpu.read16AfterOpcode()));
+        }
         case LD_A_BCR: {
-            regFile.set(Reg.A, read8(reg16(Reg16.BC)));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.read8(cpu.reg16(Reg16.BC)));
+        }
         case LD_A_DER: {
-            regFile.set(Reg.A, read8(reg16(Reg16.DE)));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.read8(cpu.reg16(Reg16.DE)));
+        }
         case LD_R8_N8: {
-            Reg opcodeReg = extractReg(opcode, 3);
-            regFile.set(opcodeReg, read8AfterOpcode());
-        } break;
+            Reg opcodeReg = extractReg(opcode, BIT_4);
+            return cpu -> cpu.regFile.set(opcodeReg, cpu.read8AfterOpcode());
+        }
         case LD_R16SP_N16: {
             Reg16 opcodeReg = extractReg16(opcode);
-            setReg16SP(opcodeReg, read16AfterOpcode());
-        } break;
+            return cpu -> cpu.setReg16SP(opcodeReg, cpu.read16AfterOpcode());
+        }
         case POP_R16: {
             Reg16 opcodeReg = extractReg16(opcode);
-            setReg16(opcodeReg, pop16());
-        } break;
+            return cpu -> cpu.setReg16(opcodeReg, cpu.pop16());
+        }
         // instructions de stockage
         case LD_HLR_R8: {   
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            write8AtHl(regFile.get(opcodeReg));
-        } break;
+            return cpu -> cpu.write8AtHl(cpu.regFile.get(opcodeReg));
+        }
         case LD_HLRU_A: {
-            write8AtHl(regFile.get(Reg.A));
-            setReg16(Reg16.HL, Bits.clip(LENGTH_16, reg16(Reg16.HL) + extractHlIncrement(opcode)));
-        } break;
+            int hlIncrement = extractHlIncrement(opcode);
+            return cpu -> {
+                cpu.write8AtHl(cpu.regFile.get(Reg.A));
+                cpu.setReg16(Reg16.HL, Bits.clip(LENGTH_16, cpu.reg16(Reg16.HL) + hlIncrement));
+            };
+        }
         case LD_N8R_A: {
-            write8(AddressMap.REGS_START + read8AfterOpcode(), regFile.get(Reg.A)); 
-        } break;
+            return cpu -> cpu.write8(AddressMap.REGS_START + cpu.read8AfterOpcode(), cpu.regFile.get(Reg.A)); 
+        }
         case LD_CR_A: {
-            write8(AddressMap.REGS_START + regFile.get(Reg.C), regFile.get(Reg.A));
-        } break;
+            return cpu -> cpu.write8(AddressMap.REGS_START + cpu.regFile.get(Reg.C), cpu.regFile.get(Reg.A));
+        }
         case LD_N16R_A: {   
-            write8(read16AfterOpcode(), regFile.get(Reg.A));
-        } break;
+            return cpu -> cpu.write8(cpu.read16AfterOpcode(), cpu.regFile.get(Reg.A));
+        }
         case LD_BCR_A: {
-            write8(reg16(Reg16.BC), regFile.get(Reg.A));
-        } break;
+            return cpu -> cpu.write8(cpu.reg16(Reg16.BC), cpu.regFile.get(Reg.A));
+        }
         case LD_DER_A: {
-            write8(reg16(Reg16.DE), regFile.get(Reg.A));
-        } break;
+            return cpu -> cpu.write8(cpu.reg16(Reg16.DE), cpu.regFile.get(Reg.A));
+        }
         case LD_HLR_N8: {
-            write8AtHl(read8AfterOpcode());
-        } break;
+            return cpu -> cpu.write8AtHl(cpu.read8AfterOpcode());
+        }
         case LD_N16R_SP: {
-            write16(read16AfterOpcode(), SP);
-        } break;
+            return cpu -> cpu.write16(cpu.read16AfterOpcode(), cpu.SP);
+        }
         case PUSH_R16 : {
             Reg16 opcodeReg = extractReg16(opcode);
-            push16(reg16(opcodeReg));
-        } break;
+            return cpu -> cpu.push16(cpu.reg16(opcodeReg));
+        }
         // instructions de copie
         case LD_R8_R8 : {
             Reg opcodeRegS = extractReg(opcode, BIT_1);
             Reg opcodeRegR = extractReg(opcode, BIT_4);
-            if (opcodeRegS != opcodeRegR) {
-                regFile.set(opcodeRegR, regFile.get(opcodeRegS));
+            if (opcodeRegS == opcodeRegR) {
+                return cpu -> {};
             }
-        } break;
+            return cpu -> cpu.regFile.set(opcodeRegR, cpu.regFile.get(opcodeRegS));
+        }
         case LD_SP_HL: {
-            setReg16SP(Reg16.AF, reg16(Reg16.HL));  
-        } break;
+            return cpu -> cpu.setReg16SP(Reg16.AF, cpu.reg16(Reg16.HL));  
+        }
         // Add
         case ADD_A_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(Reg.A, Alu.add(regFile.get(Reg.A), regFile.get(opcodeReg), carryInitVal(opcode)));
-        } break;
+            boolean withCarry = usesCarry(opcode);
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.ADD, cpu.regFile.get(Reg.A), cpu.regFile.get(opcodeReg), cpu.carryInitVal(withCarry)));
+        }
         case ADD_A_N8: {
-            setRegFlags(Reg.A, Alu.add(regFile.get(Reg.A), read8AfterOpcode(), carryInitVal(opcode)));
-        } break;
+            boolean withCarry = usesCarry(opcode);
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.ADD, cpu.regFile.get(Reg.A), cpu.read8AfterOpcode(), cpu.carryInitVal(withCarry)));
+        }
         case ADD_A_HLR: {
-            setRegFlags(Reg.A, Alu.add(regFile.get(Reg.A), read8AtHl(), carryInitVal(opcode)));
-        } break;
+            boolean withCarry = usesCarry(opcode);
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.ADD, cpu.regFile.get(Reg.A), cpu.read8AtHl(), cpu.carryInitVal(withCarry)));
+        }
         case INC_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_4);
-            int valueFlags = Alu.add(regFile.get(opcodeReg), 1);
-            setRegFromAlu(opcodeReg, valueFlags);
-            combineAluFlags(valueFlags, FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.CPU);
-        } break;
+            return cpu -> cpu.regFile.set(opcodeReg, cpu.deferFlags(LazyOp.INC, cpu.regFile.get(opcodeReg), 1, false));
+        }
         case INC_HLR: {
-            int valueFlags = Alu.add(read8AtHl(), 1);
-            write8AtHl(Alu.unpackValue(valueFlags));
-            combineAluFlags(valueFlags, FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.CPU);
-        } break;
+            return cpu -> cpu.write8AtHl(cpu.deferFlags(LazyOp.INC, cpu.read8AtHl(), 1, false));
+        }
         case INC_R16SP: {
             Reg16 opcodeReg = extractReg16(opcode);
-            int value = Alu.add16H(getReg16Sp(opcodeReg), 1);
-            setReg16SP(opcodeReg, Alu.unpackValue(value));
-        } break;
+            return cpu -> {
+                int value = Alu.add16H(cpu.getReg16Sp(opcodeReg), 1);
+                cpu.setReg16SP(opcodeReg, Alu.unpackValue(value));
+            };
+        }
         case ADD_HL_R16SP: {    
             Reg16 opcodeReg = extractReg16(opcode);         
-            int value = Alu.add16H(reg16(Reg16.HL), getReg16Sp(opcodeReg));
-            setReg16(Reg16.HL, Alu.unpackValue(value));
-            combineAluFlags(value, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.ALU);
-        } break;
+            return cpu -> {
+                int value = Alu.add16H(cpu.reg16(Reg16.HL), cpu.getReg16Sp(opcodeReg));
+                cpu.setReg16(Reg16.HL, Alu.unpackValue(value));
+                cpu.combineAluFlags(value, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.ALU);
+            };
+        }
         case LD_HLSP_S8: {
-            addForLD_HLSP_S8(opcode);
-        } break;
+            boolean toHl = Bits.test(opcode.encoding, BIT_5);
+            return cpu -> cpu.addForLD_HLSP_S8(toHl);
+        }
         // Subtract
         case SUB_A_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(Reg.A, Alu.sub(regFile.get(Reg.A), regFile.get(opcodeReg), carryInitVal(opcode)));
-        } break;
+            boolean withCarry = usesCarry(opcode);
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.SUB, cpu.regFile.get(Reg.A), cpu.regFile.get(opcodeReg), cpu.carryInitVal(withCarry)));
+        }
         case SUB_A_N8: {
-            setRegFlags(Reg.A, Alu.sub(regFile.get(Reg.A), read8AfterOpcode(), carryInitVal(opcode)));
-        } break;
+            boolean withCarry = usesCarry(opcode);
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.SUB, cpu.regFile.get(Reg.A), cpu.read8AfterOpcode(), cpu.carryInitVal(withCarry)));
+        }
         case SUB_A_HLR: {
-            setRegFlags(Reg.A, Alu.sub(regFile.get(Reg.A), read8AtHl(), carryInitVal(opcode)));
-        } break;
+            boolean withCarry = usesCarry(opcode);
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.SUB, cpu.regFile.get(Reg.A), cpu.read8AtHl(), cpu.carryInitVal(withCarry)));
+        }
         case DEC_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_4);
-            int valueFlags = Alu.sub(regFile.get(opcodeReg), 1);
-            setRegFromAlu(opcodeReg, valueFlags);
-            combineAluFlags(valueFlags, FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU, FlagSrc.CPU);
-        } break;
+            return cpu -> cpu.regFile.set(opcodeReg, cpu.deferFlags(LazyOp.DEC, cpu.regFile.get(opcodeReg), 1, false));
+        }
         case DEC_HLR: {
-            int valueFlags = Alu.sub(read8AtHl(), 1);
-            write8AtHl(Alu.unpackValue(valueFlags));
-            combineAluFlags(valueFlags, FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU, FlagSrc.CPU);
-        } break;
+            return cpu -> cpu.write8AtHl(cpu.deferFlags(LazyOp.DEC, cpu.read8AtHl(), 1, false));
+        }
         case CP_A_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setFlags(Alu.sub(regFile.get(Reg.A), regFile.get(opcodeReg)));
-        } break;
+            return cpu -> cpu.deferFlags(LazyOp.SUB, cpu.regFile.get(Reg.A), cpu.regFile.get(opcodeReg), false);
+        }
         case CP_A_N8: {
-            setFlags(Alu.sub(regFile.get(Reg.A), read8AfterOpcode()));
-        } break;
+            return cpu -> cpu.deferFlags(LazyOp.SUB, cpu.regFile.get(Reg.A), cpu.read8AfterOpcode(), false);
+        }
         case CP_A_HLR: {
-            setFlags(Alu.sub(regFile.get(Reg.A), read8AtHl()));
-        } break;
+            return cpu -> cpu.deferFlags(LazyOp.SUB, cpu.regFile.get(Reg.A), cpu.read8AtHl(), false);
+        }
         case DEC_R16SP: {
             Reg16 opcodeReg = extractReg16(opcode);
-            setReg16SP(opcodeReg, Bits.clip(LENGTH_16, toDecrementForDEC_R16SP(opcode)));
-        } break;
+            return cpu -> cpu.setReg16SP(opcodeReg, Bits.clip(LENGTH_16, cpu.getReg16Sp(opcodeReg) - 1));
+        }
         // And, or, xor, complement
         case AND_A_N8: {
-            setRegFlags(Reg.A, Alu.and(regFile.get(Reg.A), read8AfterOpcode()));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.AND, cpu.regFile.get(Reg.A), cpu.read8AfterOpcode(), false));
+        }
         case AND_A_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(Reg.A, Alu.and(regFile.get(Reg.A), regFile.get(opcodeReg)));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.AND, cpu.regFile.get(Reg.A), cpu.regFile.get(opcodeReg), false));
+        }
         case AND_A_HLR: {
-            setRegFlags(Reg.A, Alu.and(regFile.get(Reg.A), read8AtHl()));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.AND, cpu.regFile.get(Reg.A), cpu.read8AtHl(), false));
+        }
         case OR_A_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(Reg.A, Alu.or(regFile.get(Reg.A), regFile.get(opcodeReg)));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.OR, cpu.regFile.get(Reg.A), cpu.regFile.get(opcodeReg), false));
+        }
         case OR_A_N8: {
-            setRegFlags(Reg.A, Alu.or(regFile.get(Reg.A), read8AfterOpcode()));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.OR, cpu.regFile.get(Reg.A), cpu.read8AfterOpcode(), false));
+        }
         case OR_A_HLR: {
-            setRegFlags(Reg.A, Alu.or(regFile.get(Reg.A), read8AtHl()));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.OR, cpu.regFile.get(Reg.A), cpu.read8AtHl(), false));
+        }
         case XOR_A_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(Reg.A, Alu.xor(regFile.get(Reg.A), regFile.get(opcodeReg)));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.XOR, cpu.regFile.get(Reg.A), cpu.regFile.get(opcodeReg), false));
+        }
         case XOR_A_N8: {
-            setRegFlags(Reg.A, Alu.xor(regFile.get(Reg.A), read8AfterOpcode()));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.XOR, cpu.regFile.get(Reg.A), cpu.read8AfterOpcode(), false));
+        }
         case XOR_A_HLR: {
-            setRegFlags(Reg.A, Alu.xor(regFile.get(Reg.A), read8AtHl()));
-        } break;
+            return cpu -> cpu.regFile.set(Reg.A, cpu.deferFlags(LazyOp.XOR, cpu.regFile.get(Reg.A), cpu.read8AtHl(), false));
+        }
         case CPL: {
-            regFile.set(Reg.A, Bits.complement8(regFile.get(Reg.A)));
-            combineAluFlags(0, FlagSrc.CPU, FlagSrc.V1, FlagSrc.V1, FlagSrc.CPU);
-        } break;
+            return cpu -> {
+                cpu.regFile.set(Reg.A, Bits.complement8(cpu.regFile.get(Reg.A)));
+                cpu.combineAluFlags(0, FlagSrc.CPU, FlagSrc.V1, FlagSrc.V1, FlagSrc.CPU);
+            };
+        }
         // Rotate, shift
         case ROTCA: {
-            int valueFlags = Alu.rotate(rotDir(opcode), regFile.get(Reg.A));
-            regFile.set(Reg.A, Alu.unpackValue(valueFlags));
-            combineAluFlags(valueFlags, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
-        } break;
+            RotDir dir = rotDir(opcode);
+            return cpu -> {
+                int valueFlags = AluTables.rotate(dir, cpu.regFile.get(Reg.A));
+                cpu.regFile.set(Reg.A, Alu.unpackValue(valueFlags));
+                cpu.combineAluFlags(valueFlags, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
+            };
+        }
         case ROTA: {
-            int valueFlags = Alu.rotate(rotDir(opcode), regFile.get(Reg.A), extractFlag(Alu.Flag.C));
-            regFile.set(Reg.A, Alu.unpackValue(valueFlags));
-            combineAluFlags(valueFlags, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
-        } break;
+            RotDir dir = rotDir(opcode);
+            return cpu -> {
+                int valueFlags = AluTables.rotate(dir, cpu.regFile.get(Reg.A), cpu.extractFlag(Alu.Flag.C));
+                cpu.regFile.set(Reg.A, Alu.unpackValue(valueFlags));
+                cpu.combineAluFlags(valueFlags, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
+            };
+        }
         case ROTC_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(opcodeReg, Alu.rotate(rotDir(opcode), regFile.get(opcodeReg)));
-        } break;
+            RotDir dir = rotDir(opcode);
+            return cpu -> cpu.setRegFlags(opcodeReg, AluTables.rotate(dir, cpu.regFile.get(opcodeReg)));
+        }
         case ROT_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(opcodeReg, Alu.rotate(rotDir(opcode), regFile.get(opcodeReg), extractFlag(Alu.Flag.C)));
-        } break;
+            RotDir dir = rotDir(opcode);
+            return cpu -> cpu.setRegFlags(opcodeReg, AluTables.rotate(dir, cpu.regFile.get(opcodeReg), cpu.extractFlag(Alu.Flag.C)));
+        }
         case ROTC_HLR: {
-            write8AtHlAndSetFlags(Alu.rotate(rotDir(opcode), read8AtHl()));
-        } break;
+            RotDir dir = rotDir(opcode);
+            return cpu -> cpu.write8AtHlAndSetFlags(AluTables.rotate(dir, cpu.read8AtHl()));
+        }
         case ROT_HLR: {
-            write8AtHlAndSetFlags(Alu.rotate(rotDir(opcode), read8AtHl(), extractFlag(Alu.Flag.C)));
-        } break;
+            RotDir dir = rotDir(opcode);
+            return cpu -> cpu.write8AtHlAndSetFlags(AluTables.rotate(dir, cpu.read8AtHl(), cpu.extractFlag(Alu.Flag.C)));
+        }
         case SWAP_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(opcodeReg, Alu.swap(regFile.get(opcodeReg)));
-        } break;
+            return cpu -> cpu.setRegFlags(opcodeReg, AluTables.swap(cpu.regFile.get(opcodeReg)));
+        }
         case SWAP_HLR: {
-            write8AtHlAndSetFlags(Alu.swap(read8AtHl()));
-        } break;
+            return cpu -> cpu.write8AtHlAndSetFlags(AluTables.swap(cpu.read8AtHl()));
+        }
         case SLA_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(opcodeReg, Alu.shiftLeft(regFile.get(opcodeReg)));
-        } break;
+            return cpu -> cpu.setRegFlags(opcodeReg, AluTables.shiftLeft(cpu.regFile.get(opcodeReg)));
+        }
         case SRA_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(opcodeReg, Alu.shiftRightA(regFile.get(opcodeReg)));
-        } break;
+            return cpu -> cpu.setRegFlags(opcodeReg, AluTables.shiftRightA(cpu.regFile.get(opcodeReg)));
+        }
         case SRL_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            setRegFlags(opcodeReg, Alu.shiftRightL(regFile.get(opcodeReg)));
-        } break;
+            return cpu -> cpu.setRegFlags(opcodeReg, AluTables.shiftRightL(cpu.regFile.get(opcodeReg)));
+        }
         case SLA_HLR: {
-            int value = Alu.shiftLeft(read8AtHl());
-            write8AtHlAndSetFlags(value);
-        } break;
+            return cpu -> cpu.write8AtHlAndSetFlags(AluTables.shiftLeft(cpu.read8AtHl()));
+        }
         case SRA_HLR: {
-            int value = Alu.shiftRightA(read8AtHl());
-            write8AtHlAndSetFlags(value);
-        } break;
+            return cpu -> cpu.write8AtHlAndSetFlags(AluTables.shiftRightA(cpu.read8AtHl()));
+        }
         case SRL_HLR: {
-            int value = Alu.shiftRightL(read8AtHl());
-            write8AtHlAndSetFlags(value);
-        } break;
+            return cpu -> cpu.write8AtHlAndSetFlags(AluTables.shiftRightL(cpu.read8AtHl()));
+        }
         // Bit test and set
         case BIT_U3_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
-            combineAluFlags(Alu.testBit(regFile.get(opcodeReg), extractBitIndex(opcode)), FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1, FlagSrc.CPU);
-        } break;
+            int bitIndex = extractBitIndex(opcode);
+            return cpu -> cpu.combineAluFlags(Alu.testBit(cpu.regFile.get(opcodeReg), bitIndex), FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1, FlagSrc.CPU);
+        }
         case BIT_U3_HLR: {
-            combineAluFlags(Alu.testBit(read8AtHl(), extractBitIndex(opcode)), FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1, FlagSrc.CPU);
-        } break;
-        //peut etre optimisee je pense
+            int bitIndex = extractBitIndex(opcode);
+            return cpu -> cpu.combineAluFlags(Alu.testBit(cpu.read8AtHl(), bitIndex), FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1, FlagSrc.CPU);
+        }
         case CHG_U3_R8: {
             Reg opcodeReg = extractReg(opcode, BIT_1);
+            int mask = valToAttribute(opcode, isSET(opcode));
             if (isSET(opcode)) {
-                regFile.set(opcodeReg, regFile.get(opcodeReg) | valToAttribute(opcode, isSET(opcode)) );
-            }
-            else {
-                regFile.set(opcodeReg, regFile.get(opcodeReg) & valToAttribute(opcode, isSET(opcode)) );
+                return cpu -> cpu.regFile.set(opcodeReg, cpu.regFile.get(opcodeReg) | mask);
             }
-        } break;
+            return cpu -> cpu.regFile.set(opcodeReg, cpu.regFile.get(opcodeReg) & mask);
+        }
         case CHG_U3_HLR: {
+            int mask = valToAttribute(opcode, isSET(opcode));
             if (isSET(opcode)) {
-                write8AtHl( read8AtHl() | valToAttribute(opcode, isSET(opcode)) );
+                return cpu -> cpu.write8AtHl(cpu.read8AtHl() | mask);
             }
-            else {
-                write8AtHl( read8AtHl() & valToAttribute(opcode, isSET(opcode)) );
-            }
-        } break;
+            return cpu -> cpu.write8AtHl(cpu.read8AtHl() & mask);
+        }
         case DAA: {
-            int daa = Alu.bcdAdjust(regFile.get(Reg.A), extractFlag(Alu.Flag.N), extractFlag(Alu.Flag.H), extractFlag(Alu.Flag.C));
-            setRegFromAlu(Reg.A , daa);
-            combineAluFlags(daa, FlagSrc.ALU, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU);
-        } break;
+            return cpu -> {
+                int daa = AluTables.bcdAdjust(cpu.regFile.get(Reg.A), cpu.extractFlag(Alu.Flag.N), cpu.extractFlag(Alu.Flag.H), cpu.extractFlag(Alu.Flag.C));
+                cpu.setRegFromAlu(Reg.A , daa);
+                cpu.combineAluFlags(daa, FlagSrc.ALU, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU);
+            };
+        }
         case SCCF: {
-            combineAluFlags(0, FlagSrc.CPU, FlagSrc.V0, FlagSrc.V0, cFlagForSCCF(opcode));
-        } break;
+            boolean complement = usesCarry(opcode);
+            return cpu -> cpu.combineAluFlags(0, FlagSrc.CPU, FlagSrc.V0, FlagSrc.V0, cpu.cFlagForSCCF(complement));
+        }
         // Jumps
         case JP_HL: {
-            nextPC = reg16(Reg16.HL);
-        } break;
+            return cpu -> cpu.nextPC = cpu.reg16(Reg16.HL);
+        }
         case JP_N16: {
-            nextPC = read16AfterOpcode();
-        } break;
+            return cpu -> cpu.nextPC = cpu.read16AfterOpcode();
+        }
         case JP_CC_N16: {
-            if (testOpcodeCondition(opcode)) {
-                nextPC = read16AfterOpcode();
-                nextNonIdleCycle += opcode.additionalCycles;
-            }
-        } break;
+            Alu.Flag conditionFlag = conditionFlag(opcode);
+            boolean conditionValue = conditionValue(opcode);
+            return cpu -> {
+                if (cpu.extractFlag(conditionFlag) == conditionValue) {
+                    cpu.nextPC = cpu.read16AfterOpcode();
+                    cpu.nextNonIdleCycle += opcode.additionalCycles;
+                }
+            };
+        }
         case JR_E8: {
-            byte signedNextVal = (byte) read8AfterOpcode();
-            nextPC += signedNextVal;
-        } break;
+            return cpu -> {
+                byte signedNextVal = (byte) cpu.read8AfterOpcode();
+                cpu.nextPC += signedNextVal;
+            };
+        }
         case JR_CC_E8: {
-            if (testOpcodeCondition(opcode)) {
-                byte signedNextVal = (byte) read8AfterOpcode();
-                nextPC += signedNextVal;
-                nextNonIdleCycle += opcode.additionalCycles;
-            }
-        } break;
+            Alu.Flag conditionFlag = conditionFlag(opcode);
+            boolean conditionValue = conditionValue(opcode);
+            return cpu -> {
+                if (cpu.extractFlag(conditionFlag) == conditionValue) {
+                    byte signedNextVal = (byte) cpu.read8AfterOpcode();
+                    cpu.nextPC += signedNextVal;
+                    cpu.nextNonIdleCycle += opcode.additionalCycles;
+                }
+            };
+        }
         // Calls and returns
         case CALL_N16: {
-            push16(PC + opcode.totalBytes);
-            nextPC = read16AfterOpcode();
-        } break;
+            return cpu -> {
+                cpu.push16(cpu.nextPC);
+                cpu.nextPC = cpu.read16AfterOpcode();
+            };
+        }
         case CALL_CC_N16: {
-            if (testOpcodeCondition(opcode)) {
-                push16(PC + opcode.totalBytes);
-                nextPC = read16AfterOpcode();
-                nextNonIdleCycle += opcode.additionalCycles;
-            }
-        } break;
+            Alu.Flag conditionFlag = conditionFlag(opcode);
+            boolean conditionValue = conditionValue(opcode);
+            return cpu -> {
+                if (cpu.extractFlag(conditionFlag) == conditionValue) {
+                    cpu.push16(cpu.nextPC);
+                    cpu.nextPC = cpu.read16AfterOpcode();
+                    cpu.nextNonIdleCycle += opcode.additionalCycles;
+                }
+            };
+        }
         case RST_U3: {
-            push16(PC + opcode.totalBytes);
-            nextPC =  AddressMap.RESETS[extractBitIndex(opcode)];
-        } break;
+            int resetAddress = AddressMap.RESETS[extractBitIndex(opcode)];
+            return cpu -> {
+                cpu.push16(cpu.nextPC);
+                cpu.nextPC = resetAddress;
+            };
+        }
         case RET: {
-            nextPC = pop16();
-        } break;
+            return cpu -> cpu.nextPC = cpu.pop16();
+        }
         case RET_CC: {
-            if (testOpcodeCondition(opcode)) {
-                nextPC = pop16();
-                nextNonIdleCycle += opcode.additionalCycles;
-            }
-        } break;
+            Alu.Flag conditionFlag = conditionFlag(opcode);
+            boolean conditionValue = conditionValue(opcode);
+            return cpu -> {
+                if (cpu.extractFlag(conditionFlag) == conditionValue) {
+                    cpu.nextPC = cpu.pop16();
+                    cpu.nextNonIdleCycle += opcode.additionalCycles;
+                }
+            };
+        }
         // Interrupts
         case EDI: {
-            IME = Bits.test(opcode.encoding, BIT_4);
-        } break;
+            boolean enable = Bits.test(opcode.encoding, BIT_4);
+            return cpu -> cpu.IME = enable;
+        }
         case RETI: {
-            IME = true;
-            nextPC = pop16();
-        } break;
+            return cpu -> {
+                cpu.IME = true;
+                cpu.nextPC = cpu.pop16();
+            };
+        }
         // Misc control
         case HALT: {
-            nextNonIdleCycle = Long.MAX_VALUE;
-        } break;
+            return cpu -> cpu.nextNonIdleCycle = Long.MAX_VALUE;
+        }
         case STOP:
-            throw new Error("STOP is not implemented");
+            return cpu -> {
+                throw new Error("STOP is not implemented");
+            };
         default :
             throw new IllegalArgumentException();
         }
-        PC = nextPC;
     }
 
     /**
@@ -595,6 +957,7 @@ public final class Cpu implements Component, Clocked {
      * @param v: valeur 8 bits donnée
      */
     private void write8(int address, int v) {
+        ++writeCount;
         bus.write(address, Bits.clip(LENGTH_8, v));
     }
     /**
@@ -603,6 +966,7 @@ public final class Cpu implements Component, Clocked {
      * @param v: valeur 8 bits donnée
      */
     private void write16(int address, int v) {
+        ++writeCount;
         bus.write(address, getLSBs(v));
         bus.write(Bits.clip(LENGTH_16, address + 1), getMSBs(v));
     }
@@ -638,6 +1002,9 @@ public final class Cpu implements Component, Clocked {
      * @return valeur contenue dans la paire de registre donnée
      */
     private int reg16(Reg16 r) {
+        if (r == Reg16.AF) {
+            materializeFlags();
+        }
         int MSR = regFile.get(r.firstReg);
         int LSR = regFile.get(r.secondReg);
         return Bits.make16(MSR, LSR);
@@ -652,6 +1019,7 @@ public final class Cpu implements Component, Clocked {
     private void setReg16(Reg16 r, int newV) {
         switch(r) {
         case AF: {
+            lazyOp = LazyOp.NONE;
             regFile.set(r.firstReg, newV >> LENGTH_8);
             regFile.set(r.secondReg, Bits.extract(newV, BIT_5, LENGTH_4) << LENGTH_4);
         } break;
@@ -682,7 +1050,7 @@ public final class Cpu implements Component, Clocked {
      * @param startBit: index du bit à partir duquel on extrait le registre
      * @return identité du registre 8 bits
      */
-    private Reg extractReg(Opcode opcode, int startBit) {
+    private static Reg extractReg(Opcode opcode, int startBit) {
         int encoding = Bits.extract(opcode.encoding, startBit, LENGTH_3);
         switch(encoding) {
         case 0b000 : {
@@ -717,7 +1085,7 @@ public final class Cpu implements Component, Clocked {
      * @param opcode: opcode dont on veut extraire le registre 8 bits
      * @return idendité du registre 16 bits
      */
-    private Reg16 extractReg16(Opcode opcode) {
+    private static Reg16 extractReg16(Opcode opcode) {
         int encoding = Bits.extract(opcode.encoding, BIT_5, LENGTH_2);
         switch(encoding) {
         case 0b00 : {
@@ -741,7 +1109,7 @@ public final class Cpu implements Component, Clocked {
      * @param opcode: indique l'instruction donnée
      * @return +1 ou -1 selon l'opcode
      */
-    private int extractHlIncrement(Opcode opcode) {
+    private static int extractHlIncrement(Opcode opcode) {
         int encoding = opcode.encoding;
         int HlIncrement = (Bits.test(encoding, BIT_5)) ? -1 : 1;
         return HlIncrement;
@@ -779,6 +1147,7 @@ public final class Cpu implements Component, Clocked {
      * @param valueFlags : la paire donnée
      */
     private void setFlags(int valueFlags) {
+        lazyOp = LazyOp.NONE;
         regFile.set(Reg.F, Alu.unpackFlags(valueFlags));
     }
 
@@ -805,33 +1174,40 @@ public final class Cpu implements Component, Clocked {
 
     /**
      * Donne l'index du bit à extraire
-     * @param opcode : l'opcode donné en argument dans dispatch
+     * @param opcode : l'opcode à décoder
      * @return l'index du bit à extraire
      */
-    private int extractBitIndex(Opcode opcode){
+    private static int extractBitIndex(Opcode opcode){
         return Bits.extract(opcode.encoding, BIT_4, LENGTH_3);
     }
 
+    /**
+     * Détermine si l'instruction utilise le fanion C (ADC, SBC, CCF), à l'aide du bit d'index 3 de l'opcode
+     * @param opcode : l'opcode à décoder
+     * @return vrai si l'instruction utilise le fanion C
+     */
+    private static boolean usesCarry(Opcode opcode) {
+        return Bits.test(opcode.encoding, BIT_4);
+    }
+
     /**
      * Cherche s'il doit y avoir ou non présence de carry selon le fanion C et l'instruction
-     * On détermine l'instruction à l'aide du bit d'index 3 de l'opcode
-     * @param opcode
+     * @param withCarry : vrai si l'instruction utilise le fanion C, voir usesCarry
      * @return la valeur du carry
      */
-    private boolean carryInitVal(Opcode opcode) {
-        boolean thirdOpcodeBit = Bits.test(opcode.encoding, BIT_4);
-        return (thirdOpcodeBit & extractFlag(Alu.Flag.C));
+    private boolean carryInitVal(boolean withCarry) {
+        return (withCarry && extractFlag(Alu.Flag.C));
     }
 
     /**
      * Effectue l'instruction LD_HLSP_S8
-     * @param opcode : l'opcode passé en argument à dispatch
+     * @param toHl : vrai si le résultat va dans HL, faux s'il va dans SP
      */
-    private void addForLD_HLSP_S8(Opcode opcode) {
+    private void addForLD_HLSP_S8(boolean toHl) {
         int r = Bits.signExtend8(read8AfterOpcode());
         int sum = Alu.add16L(SP, Bits.clip(LENGTH_16, r));
         setFlags(sum);
-        if (Bits.test(opcode.encoding, BIT_5)) {
+        if (toHl) {
             setReg16(Reg16.HL, Alu.unpackValue(sum));
         } else {
             SP = Alu.unpackValue(sum);
@@ -840,10 +1216,10 @@ public final class Cpu implements Component, Clocked {
 
     /**
      * Choisi SET ou RES pour les instructions CHG
-     * @param opcode : l'opcode passé en argument à dispatch
+     * @param opcode : l'opcode à décoder
      * @return true pour SET, false pour RES
      */
-    private boolean isSET(Opcode opcode) {
+    private static boolean isSET(Opcode opcode) {
         return Bits.test(opcode.encoding, BIT_7);
     }
 
@@ -856,6 +1232,7 @@ public final class Cpu implements Component, Clocked {
      * @param c : le fanion C
      */
     private void combineAluFlags(int vf, FlagSrc z, FlagSrc n, FlagSrc h, FlagSrc c) {
+        materializeFlags();
         int vectV1 = describeSourceValues(FlagSrc.V1, z, n, h, c);
         int vectALU = describeSourceValues(FlagSrc.ALU, z, n, h, c);
         int vectCPU = describeSourceValues(FlagSrc.CPU, z, n, h, c);
@@ -880,20 +1257,20 @@ public final class Cpu implements Component, Clocked {
 
     /**
      * Donne la direction de rotation pour les rotations du dispatch
-     * @param opcode : l'opcode passé en argument à dispatch
+     * @param opcode : l'opcode à décoder
      * @return la direction de rotation pour les rotations du dispatch
      */
-    private RotDir rotDir(Opcode opcode) {
+    private static RotDir rotDir(Opcode opcode) {
         return Bits.test(opcode.encoding, BIT_4) ? RotDir.RIGHT : RotDir.LEFT;
     }
 
     /**
      * Donne la valeur à attribuer pour l'instruction CHG
-     * @param opcode : l'opcode donné en argument à dispatch
+     * @param opcode : l'opcode à décoder
      * @param isRES : vrai si l'instruction à effectuer est RES, faux si SET
      * @return la valeur à attribuer pour l'instruction CHG
      */
-    private int valToAttribute(Opcode opcode, boolean isRES) {
+    private static int valToAttribute(Opcode opcode, boolean isRES) {
         return (isRES) ? (1 << extractBitIndex(opcode)) : ~(1 << extractBitIndex(opcode));
     }
 
@@ -911,27 +1288,21 @@ public final class Cpu implements Component, Clocked {
     }
 
     /**
-     * Determine si la condition associee a une instruction conditionnelle est vraie ou fausse
-     * @param opcode ; l'instruction
-     * @return la condition de l'opcode associe
+     * Donne le fanion testé par une instruction conditionnelle (Z pour NZ et Z, C pour NC et C)
+     * @param opcode : l'instruction
+     * @return le fanion testé par la condition de l'opcode associe
      */
-    private boolean testOpcodeCondition(Opcode opcode) {
-        int encoding = Bits.extract(opcode.encoding, BIT_4, LENGTH_2);
-        switch(encoding) {
-        case 0b00 : {
-            return !extractFlag(Alu.Flag.Z);
-        }
-        case 0b01 : {
-            return extractFlag(Alu.Flag.Z);
-        }
-        case 0b10 : {
-            return !extractFlag(Alu.Flag.C);
-        }
-        case 0b11 : {
-            return extractFlag(Alu.Flag.C);
-        }
-        default : return false;
-        }
+    private static Alu.Flag conditionFlag(Opcode opcode) {
+        return Bits.test(opcode.encoding, BIT_5) ? Alu.Flag.C : Alu.Flag.Z;
+    }
+
+    /**
+     * Donne la valeur que doit avoir le fanion testé pour que la condition d'une instruction conditionnelle soit vraie
+     * @param opcode : l'instruction
+     * @return vrai pour Z et C, faux pour NZ et NC
+     */
+    private static boolean conditionValue(Opcode opcode) {
+        return Bits.test(opcode.encoding, BIT_4);
     }
 
     /**
@@ -940,9 +1311,92 @@ public final class Cpu implements Component, Clocked {
      * @return vrai pour 1, faux pour 0
      */
     private boolean extractFlag(Alu.Flag flag) {
+        if (lazyOp != LazyOp.NONE) {
+            if (flag == Alu.Flag.Z) {
+                return lazyResult == 0;
+            }
+            materializeFlags();
+        }
         return regFile.testBit(Reg.F, flag);
     }
 
+    /**
+     * Effectue l'opération 8 bits donnée sans en calculer les fanions : l'opération et ses opérandes sont mémorisés,
+     * et les fanions ne seront calculés par l'Alu, voir materializeFlags, que lorsque le registre F sera lu.
+     * Le fanion Z, qui ne dépend que du résultat, peut être lu sans les calculer
+     * @param op : l'opération effectuée
+     * @param l : l'opérande de gauche, 8 bits
+     * @param r : l'opérande de droite, 8 bits (1 pour INC et DEC)
+     * @param c : la retenue (ou l'emprunt) initiale, pour ADD et SUB
+     * @return le résultat 8 bits de l'opération
+     */
+    private int deferFlags(LazyOp op, int l, int r, boolean c) {
+        if (op.keepsCarry) {
+            materializeFlags();
+        }
+        int carry = c ? 1 : 0;
+        int result;
+        switch (op) {
+        case ADD: case INC:
+            result = l + r + carry;
+            break;
+        case SUB: case DEC:
+            result = l - r - carry;
+            break;
+        case AND:
+            result = l & r;
+            break;
+        case OR:
+            result = l | r;
+            break;
+        case XOR:
+            result = l ^ r;
+            break;
+        default:
+            throw new IllegalArgumentException();
+        }
+        lazyOp = op;
+        lazyLeft = l;
+        lazyRight = r;
+        lazyCarry = c;
+        lazyResult = Bits.clip(LENGTH_8, result);
+        return lazyResult;
+    }
+
+    /**
+     * Calcule et place dans le registre F les fanions de la dernière opération effectuée par deferFlags,
+     * s'ils n'ont pas déjà été calculés
+     */
+    private void materializeFlags() {
+        LazyOp op = lazyOp;
+        lazyOp = LazyOp.NONE;
+        switch (op) {
+        case ADD:
+            setFlags(AluTables.add(lazyLeft, lazyRight, lazyCarry));
+            break;
+        case SUB:
+            setFlags(AluTables.sub(lazyLeft, lazyRight, lazyCarry));
+            break;
+        case AND:
+            setFlags(Alu.and(lazyLeft, lazyRight));
+            break;
+        case OR:
+            setFlags(Alu.or(lazyLeft, lazyRight));
+            break;
+        case XOR:
+            setFlags(Alu.xor(lazyLeft, lazyRight));
+            break;
+        case INC:
+            combineAluFlags(AluTables.add(lazyLeft, lazyRight, false), FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.CPU);
+            break;
+        case DEC:
+            combineAluFlags(AluTables.sub(lazyLeft, lazyRight, false), FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU, FlagSrc.CPU);
+            break;
+        default:
+            break;
+        }
+    }
+
     /**
      * Leve l'interruption donnee
      * @param i ; l'interruption
@@ -962,22 +1416,13 @@ public final class Cpu implements Component, Clocked {
         return numberOfTrailingZeros;
     }
 
-    /**
-     * Donne l'opcodeReg à décrementer lors de l'instruction DEC_R16SP
-     * @param opcode : l'opcode passé en argument à dispatch
-     * @return l'opcodeReg à décrementer lors de l'instruction DEC_R16SP
-     */
-    private int toDecrementForDEC_R16SP(Opcode opcode) {
-        return (Bits.extract(opcode.encoding, BIT_5, LENGTH_2) == 0b11) ? (SP-1) :  (reg16(extractReg16(opcode)) - 1);
-    }
-
     /**
      * Donne la valeur à attribuer au fanion C lors de l'instruction SCCF
-     * @param opcode : l'opcode passé en argument à dispatch
+     * @param complement : vrai pour CCF, faux pour SCF
      * @return la valeur à attribuer au fanion C lors de l'instruction SCCF
      */
-    private FlagSrc cFlagForSCCF(Opcode opcode) {
-        return !carryInitVal(opcode) ? FlagSrc.V1 : FlagSrc.V0;
+    private FlagSrc cFlagForSCCF(boolean complement) {
+        return !carryInitVal(complement) ? FlagSrc.V1 : FlagSrc.V0;
     }
 
     /**
@@ -1,6 +1,8 @@
 package ch.epfl.gameboj.component.lcd;
+import static ch.epfl.gameboj.Preconditions.checkArgument;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Bus;
@@ -11,6 +13,7 @@ import ch.epfl.gameboj.bits.BitVector;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Savable;
 import ch.epfl.gameboj.component.cpu.Cpu;
 import ch.epfl.gameboj.component.cpu.Cpu.Interrupt;
 import ch.epfl.gameboj.component.memory.Ram;
@@ -21,7 +24,7 @@ import ch.epfl.gameboj.component.memory.RamController;
  * @author Vincent Yuan (287639)
  * @author Niels Escarfail (282347)
  */
-public final class LcdController implements Component, Clocked {
+public final class LcdController implements Component, Clocked, Savable {
     private static final int LCD_WIDTH = 160;
     private static final int LCD_HEIGHT = 144;
     private static final int SAVE_STAT_BITS = 0b00000111;
@@ -29,6 +32,7 @@ public final class LcdController implements Component, Clocked {
     private static final int CYCLES_IN_IMAGE = 17556;
     private static final int CYCLES_IN_A_LINE = 114;
     private static final int LINE_IN_IMAGE = 144;
+    private static final int LINES_IN_FRAME = CYCLES_IN_IMAGE / CYCLES_IN_A_LINE;
     private static final int CYCLE_WHEN_MODE_2 = 0;
     private static final int CYCLES_IN_MODE_2 = 20;
     private static final int CYCLES_WHEN_MODE_3 = 20;
@@ -52,6 +56,20 @@ public final class LcdController implements Component, Clocked {
     private static final int SPRITES_IN_OAM = 40;
     private static final int MAX_SPRITES_IN_LINE = 10;
     private static final int BYTES_IN_SPRITE = 4;
+    private static final int LOCKED_OAM_DATA = 0xFF;
+    private static final int LCD_INTERRUPTS = (1 << Interrupt.VBLANK.index()) | (1 << Interrupt.LCD_STAT.index());
+    private static final int TRANSPARENT = -1;
+    private static final int BITS_IN_A_COLOR = 2;
+    private static final int COLOR_MASK = 0b11;
+    private static final int BIT_8 = 7;
+    private static final int PIXELS_IN_TILE = 8;
+    private static final int BIT_9 = 8;
+    private static final int TILE_DATA_START = AddressMap.TILE_SOURCE[1];
+    private static final int TILE_DATA_END = AddressMap.BG_DISPLAY_DATA[0];
+    private static final int TILE_ROWS = (TILE_DATA_END - TILE_DATA_START) / BYTES_IN_LINE;
+    private static final LCDRegs[] LCD_REGS = LCDRegs.values();
+    private static final int STATE_SIZE = LCD_REGS.length + AddressMap.VIDEO_RAM_SIZE + AddressMap.OAM_RAM_SIZE
+            + 4 * Long.BYTES + 2 * Byte.BYTES;
 
     private final Cpu cpu;
     private final Ram videoRam;
@@ -63,9 +81,42 @@ public final class LcdController implements Component, Clocked {
     private LcdImage.Builder nextImageBuilder;
     private LcdImage currentImage;
     private Bus bus;
-    private int currentCopyAddress;
     private boolean copy;
+    private long copyEndCycle = Long.MIN_VALUE;
+    private long currentCycle;
+    private long deadline;
+    private long deadlineFrom = Long.MAX_VALUE;
+    private int deadlineStat;
+    private int deadlineLyc;
+    private long modeChange;
+    private long modeChangeFrom = Long.MAX_VALUE;
     private int winY;
+    private boolean pixelBufferEnabled;
+    private boolean pixelBufferFrame;
+    private int frameSkip;
+    private int framesToSkip;
+    private boolean skippedFrame;
+    private long startedFrames;
+    private long skippedFrames;
+    private long vBlankCount;
+    private byte[] nextImagePixels;
+    private byte[][] pixelBuffers;
+    private LcdImage[] pixelImages;
+    private int nextPixelBuffer;
+    private final byte[] lineColors = new byte[LCD_WIDTH];
+    private final boolean[] lineOpacity = new boolean[LCD_WIDTH];
+    private final byte[] bgSpriteColors = new byte[LCD_WIDTH];
+    private final byte[] fgSpriteColors = new byte[LCD_WIDTH];
+    private final int[] lineSprites = new int[MAX_SPRITES_IN_LINE];
+    private final int[] decodedTileRows = new int[TILE_ROWS];
+    private final boolean[] dirtyTileRows = new boolean[TILE_ROWS];
+    private long tileCacheLookups;
+    private long tileCacheHits;
+    private boolean tileCacheEnabled = true;
+    private final int[] spritesByLine = new int[LCD_HEIGHT * MAX_SPRITES_IN_LINE];
+    private final int[] spriteCountByLine = new int[LCD_HEIGHT];
+    private boolean spritesByLineDirty = true;
+    private boolean spriteIndexEnabled = true;
 
 
     /**
@@ -129,6 +180,7 @@ public final class LcdController implements Component, Clocked {
         nextImageBuilder = newImageBuilder();
         videoRamController = new RamController(videoRam, AddressMap.VIDEO_RAM_START, AddressMap.VIDEO_RAM_END);
         oamRam = new Ram(AddressMap.OAM_RAM_SIZE);
+        Arrays.fill(dirtyTileRows, true);
     }
 
 
@@ -139,10 +191,11 @@ public final class LcdController implements Component, Clocked {
     public int read(int address) {
         checkBits16(address);
         if (addressPointsInRegister(address)) { 	
+            catchUp();
             return lcdRegFile.get(getRegFromAddress(address));
         }
         if (addressPointsInOAM(address)) {
-            return oamRam.read(address - AddressMap.OAM_START); 
+            return oamLocked() ? LOCKED_OAM_DATA : oamRam.read(address - AddressMap.OAM_START); 
         }
         return videoRamController.read(address);  	
     }
@@ -154,9 +207,15 @@ public final class LcdController implements Component, Clocked {
     public void write(int address, int data) {
         checkBits16(address);
         checkBits8(data);
+        if (handlesAddress(address)) {
+            catchUp();
+        }
         if (addressPointsInRegister(address)) { 	
             switch (getRegFromAddress(address)) {      
             case LCDC :{
+                if (Bits.test(getReg(LCDRegs.LCDC) ^ data, LCDCBits.OBJ_SIZE)) {
+                    spritesByLineDirty = true;
+                }
                 setReg(LCDRegs.LCDC, data);
                 if (!screenON()) {
                     setMode(Mode.horizontalBlank);
@@ -176,44 +235,367 @@ public final class LcdController implements Component, Clocked {
             case DMA : {
                 setReg(LCDRegs.DMA, data);
                 copy = true;
-                currentCopyAddress = 0;
             }
             default :{
                 setReg(getRegFromAddress(address), data);
             }
             }
         }
-        if (addressPointsInOAM(address)) {
+        if (addressPointsInOAM(address) && !oamLocked()) {
+            int spriteByte = (address - AddressMap.OAM_START) % BYTES_IN_SPRITE;
+            if (spriteByte == SpriteBytes.SPR_Y.ordinal() || spriteByte == SpriteBytes.SPR_X.ordinal()) {
+                spritesByLineDirty = true;
+            }
             oamRam.write(address - AddressMap.OAM_START, data);
         }
+        if (TILE_DATA_START <= address && address < TILE_DATA_END) {
+            dirtyTileRows[(address - TILE_DATA_START) / BYTES_IN_LINE] = true;
+        }
         videoRamController.write(address, data);
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#handlesAddress(int)
+     */
+    @Override
+    public boolean handlesAddress(int address) {
+        return addressPointsInRegister(address) || addressPointsInOAM(address) || videoRamController.handlesAddress(address);
+    }
+
     /* (non-Javadoc)
      * @see ch.epfl.gameboj.component.Clocked#cycle(long)
+     * Le contrôleur ne rattrape son retard qu'aux cycles où il pourrait lever une interruption (voir nextEventCycle)
+     * ou effectuer une copie DMA ; le reste du temps, il ne le fait que lorsque ses registres sont lus ou qu'il est écrit
      */
     @Override
     public void cycle(long cycle) {
+        currentCycle = cycle;
         if (screenON() && nextNonIdleCycle == Long.MAX_VALUE) {
             nextNonIdleCycle = cycle;
             lcdOnCycle = cycle;
+            deadlineFrom = Long.MAX_VALUE;
+            modeChangeFrom = Long.MAX_VALUE;
         }
-        if (cycle == nextNonIdleCycle) {
-            reallyCycle(cycle);
+        if (copy || cycle >= nextEventCycle(cycle)) {
+            catchUp();
         }
         if (copy) {
-            if (currentCopyAddress < AddressMap.OAM_RAM_SIZE) {
-                write(AddressMap.OAM_START + currentCopyAddress, bus.read(Bits.make16(getReg(LCDRegs.DMA), currentCopyAddress++)));
+            copyToOAM(cycle);
+        }
+    }
+
+    /**
+     * Rattrape le retard du contrôleur : effectue, dans l'ordre, tous ses changements de mode et calculs de ligne
+     * jusqu'au dernier cycle donné à cycle. Appelé avant toute lecture d'un registre et toute écriture, de sorte que
+     * les effets de trame (changement de SCX, BGP, etc. en cours d'image) restent exacts
+     */
+    private void catchUp() {
+        while (nextNonIdleCycle <= currentCycle) {
+            reallyCycle(nextNonIdleCycle);
+        }
+    }
+
+    /* Vrai ssi une copie DMA est en cours, la mémoire des sprites étant alors inaccessible au processeur */
+    private boolean oamLocked() {
+        return currentCycle < copyEndCycle;
+    }
+
+    /**
+     * Effectue d'un coup la copie DMA de la page désignée par le registre DMA dans la mémoire des sprites.
+     * Celle-ci reste ensuite inaccessible au processeur (lue comme FF16, écritures ignorées) pendant les 160 cycles
+     * que dure la copie sur le Game Boy, jusqu'au cycle auquel la copie octet par octet se serait terminée
+     * @param cycle : le cycle suivant l'écriture dans le registre DMA
+     */
+    private void copyToOAM(long cycle) {
+        for (int i = 0; i < AddressMap.OAM_RAM_SIZE; ++i) {
+            oamRam.write(i, bus.read(Bits.make16(getReg(LCDRegs.DMA), i)));
+        }
+        spritesByLineDirty = true;
+        copy = false;
+        copyEndCycle = cycle + AddressMap.OAM_RAM_SIZE;
+    }
+
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Clocked#nextEventCycle(long)
+     * Les seuls événements sont les cycles auxquels le contrôleur pourrait lever une interruption (le registre IF
+     * pouvant être lu même si IE ne les active pas), la copie DMA et l'allumage de l'écran.
+     * Les autres changements de mode sont rattrapés lors des accès au contrôleur
+     */
+    @Override
+    public long nextEventCycle(long cycle) {
+        if (copy || nextNonIdleCycle == Long.MAX_VALUE) {
+            return nextInterruptCycle(cycle, LCD_INTERRUPTS);
+        }
+        /* Appelé à chaque pas de la simulation : le résultat, qui ne dépend que du prochain changement de mode, de STAT et de LYC, est conservé */
+        if (deadlineFrom != nextNonIdleCycle || deadlineStat != getReg(LCDRegs.STAT) || deadlineLyc != getReg(LCDRegs.LYC)) {
+            deadlineFrom = nextNonIdleCycle;
+            deadlineStat = getReg(LCDRegs.STAT);
+            deadlineLyc = getReg(LCDRegs.LYC);
+            deadline = nextInterruptCycle(Long.MIN_VALUE, LCD_INTERRUPTS);
+        }
+        return Math.max(cycle, deadline);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Clocked#nextStateChangeCycle(long)
+     * Chaque changement de mode modifie STAT et éventuellement LY, et la fin de la copie DMA rend la mémoire des sprites
+     * à nouveau lisible. Calculé à partir du cycle d'allumage, le contrôleur pouvant être en retard
+     */
+    @Override
+    public long nextStateChangeCycle(long cycle) {
+        if (copy || (screenON() && nextNonIdleCycle == Long.MAX_VALUE)) {
+            return cycle;
+        }
+        if (nextNonIdleCycle == Long.MAX_VALUE) {
+            return (cycle < copyEndCycle) ? copyEndCycle : Long.MAX_VALUE;
+        }
+        /* Le prochain changement de mode reste le même pour tous les cycles qui le précèdent */
+        if (cycle < modeChangeFrom || cycle > modeChange) {
+            modeChangeFrom = cycle;
+            modeChange = nextModeChangeCycle(cycle);
+        }
+        return (cycle < copyEndCycle) ? Math.min(copyEndCycle, modeChange) : modeChange;
+    }
+
+    /**
+     * Calcule le premier cycle, supérieur ou égal au cycle donné, auquel l'écran allumé change de mode ou de ligne
+     * @param cycle : le cycle donné
+     * @return le cycle du prochain changement de mode
+     */
+    private long nextModeChangeCycle(long cycle) {
+        long cycleInScreen = Math.floorMod(cycle - lcdOnCycle, (long) CYCLES_IN_IMAGE);
+        int cycleInLine = (int) (cycleInScreen % CYCLES_IN_A_LINE);
+        long lineStart = cycle - cycleInLine;
+        if (cycleInLine == CYCLE_WHEN_MODE_2) {
+            return cycle;
+        }
+        if (cycleInScreen < CYCLES_IN_A_LINE * LINE_IN_IMAGE) {
+            if (cycleInLine <= CYCLES_WHEN_MODE_3) {
+                return lineStart + CYCLES_WHEN_MODE_3;
             }
-            else {
-                copy = false;
+            if (cycleInLine <= CYCLES_WHEN_MODE_0) {
+                return lineStart + CYCLES_WHEN_MODE_0;
             }
         }
+        return lineStart + CYCLES_IN_A_LINE;
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Clocked#nextInterruptCycle(long, int)
+     * Seuls comptent le début de la période VBLANK et, si l'interruption LCD_STAT est attendue, les changements de mode
+     * ou de ligne correspondant aux sources activées dans STAT. Calculé à partir du premier changement de mode pas encore
+     * effectué, de sorte qu'une interruption sautée (car non attendue) soit levée dès le rattrapage suivant
+     */
+    @Override
+    public long nextInterruptCycle(long cycle, int interrupts) {
+        if (copy || (screenON() && nextNonIdleCycle == Long.MAX_VALUE)) {
+            return cycle;
+        }
+        if (nextNonIdleCycle == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        long from = nextNonIdleCycle;
+        long next = Long.MAX_VALUE;
+        if (Bits.test(interrupts, Interrupt.VBLANK.index())) {
+            next = nextCycleInLines(from, LINE_IN_IMAGE, LINE_IN_IMAGE + 1, CYCLE_WHEN_MODE_2);
+        }
+        if (Bits.test(interrupts, Interrupt.LCD_STAT.index())) {
+            int stat = getReg(LCDRegs.STAT);
+            if (Bits.test(stat, STATBits.INT_MODE0)) {
+                next = Math.min(next, nextCycleInLines(from, 0, LINE_IN_IMAGE, CYCLES_WHEN_MODE_0));
+            }
+            if (Bits.test(stat, STATBits.INT_MODE1)) {
+                next = Math.min(next, nextCycleInLines(from, LINE_IN_IMAGE, LINE_IN_IMAGE + 1, CYCLE_WHEN_MODE_2));
+            }
+            if (Bits.test(stat, STATBits.INT_MODE2)) {
+                next = Math.min(next, nextCycleInLines(from, 0, LINE_IN_IMAGE, CYCLE_WHEN_MODE_2));
+            }
+            int lyc = getReg(LCDRegs.LYC);
+            if (Bits.test(stat, STATBits.INT_LYC) && lyc < LINES_IN_FRAME) {
+                next = Math.min(next, nextCycleInLines(from, lyc, lyc + 1, CYCLE_WHEN_MODE_2));
+            }
+        }
+        return Math.max(cycle, next);
+    }
+
+    /**
+     * Calcule le premier cycle, supérieur ou égal au cycle donné, situé au cycle donné d'une des lignes données de l'image
+     * @param cycle : le cycle donné
+     * @param firstLine : la première ligne (incluse)
+     * @param endLine : la dernière ligne (exclue)
+     * @param cycleInLine : la position dans la ligne
+     * @return le premier cycle correspondant
+     */
+    private long nextCycleInLines(long cycle, int firstLine, int endLine, int cycleInLine) {
+        long cycleInScreen = Math.floorMod(cycle - lcdOnCycle, (long) CYCLES_IN_IMAGE);
+        long frameStart = cycle - cycleInScreen;
+        int line = (int) (cycleInScreen / CYCLES_IN_A_LINE);
+        if (cycleInScreen % CYCLES_IN_A_LINE > cycleInLine) {
+            ++line;
+        }
+        if (line < firstLine) {
+            line = firstLine;
+        }
+        if (line >= endLine) {
+            frameStart += CYCLES_IN_IMAGE;
+            line = firstLine;
+        }
+        return frameStart + (long) line * CYCLES_IN_A_LINE + cycleInLine;
+    }
+
+    /**
+     * Donne le cycle, supérieur ou égal au cycle donné, auquel commencera la prochaine période VBLANK,
+     * l'image en cours de calcul devenant alors l'image actuelle
+     * @param cycle : le cycle donné, qui doit être celui du prochain appel à cycle
+     * @return le cycle de début de la prochaine période VBLANK, ou Long.MAX_VALUE si l'écran est éteint
+     */
+    public long nextVBlankCycle(long cycle) {
+        if (!screenON()) {
+            return Long.MAX_VALUE;
+        }
+        if (nextNonIdleCycle == Long.MAX_VALUE) {
+            return cycle + CYCLES_IN_A_LINE * LINE_IN_IMAGE;
+        }
+        return nextCycleInLines(cycle, LINE_IN_IMAGE, LINE_IN_IMAGE + 1, CYCLE_WHEN_MODE_2);
+    }
+
+    /**
+     * Choisit le nombre d'images dont le calcul est sauté après chaque image calculée, à partir de la prochaine image.
+     * Les modes, LY, STAT et les interruptions restent exacts pendant les images sautées, mais aucune ligne n'y est
+     * calculée et l'image actuelle reste la dernière image calculée
+     * @param frames : le nombre d'images sautées après chaque image calculée, 0 pour toutes les calculer
+     * @throws IllegalArgumentException si le nombre donné est négatif
+     */
+    public void setFrameSkip(int frames) {
+        checkArgument(frames >= 0);
+        frameSkip = frames;
+        framesToSkip = Math.min(framesToSkip, frames);
+    }
+
+    /**
+     * Donne la proportion des images commencées depuis la création du contrôleur dont le calcul a été sauté
+     * @return la proportion d'images sautées, entre 0 et 1 (0 si aucune image n'a encore été commencée)
+     */
+    public double skippedFrameRatio() {
+        return (startedFrames == 0) ? 0 : (double) skippedFrames / startedFrames;
+    }
 
     /**
-     * Accès à l'image actuelle générée par le controlleur LCD
+     * Donne le nombre de périodes VBLANK commencées depuis la création du contrôleur, y compris à la fin des images sautées
+     * @return le nombre de périodes VBLANK commencées
+     */
+    public long vBlankCount() {
+        return vBlankCount;
+    }
+
+    /**
+     * Choisit, à partir de la prochaine image, la manière dont les lignes sont calculées : soit par composition
+     * de LcdImageLine, soit directement pixel par pixel, sans allocation. Les deux donnent les mêmes pixels.
+     * Pixel par pixel, les images sont calculées alternativement dans deux tableaux alloués une fois pour toutes,
+     * que les images actuelles successives partagent : une image obtenue par currentImage ne reste valide
+     * que jusqu'à la fin de l'image suivante, le calcul de l'image d'après remplaçant ses pixels
+     * @param enabled : vrai pour calculer les lignes pixel par pixel
+     */
+    public void setPixelBufferEnabled(boolean enabled) {
+        pixelBufferEnabled = enabled;
+    }
+
+    /**
+     * Donne la proportion des lignes de tuiles (arrière-plan, fenêtre et sprites) lues dans le cache des lignes décodées
+     * plutôt que recalculées depuis la mémoire vidéo, depuis la création du contrôleur
+     * @return le taux de succès du cache, entre 0 et 1 (0 si aucune ligne n'a encore été lue)
+     */
+    public double tileCacheHitRate() {
+        return (tileCacheLookups == 0) ? 0 : (double) tileCacheHits / tileCacheLookups;
+    }
+
+    /**
+     * Active ou désactive le cache des lignes de tuiles décodées : désactivé, chaque ligne est relue depuis la mémoire vidéo.
+     * Ne sert qu'à vérifier, en comparant les images, que le cache est invalidé à temps
+     * @param enabled : faux pour relire chaque ligne à chaque utilisation
+     */
+    void setTileCacheEnabled(boolean enabled) {
+        tileCacheEnabled = enabled;
+    }
+
+    /**
+     * Active ou désactive l'index des sprites par ligne : désactivé, il est recalculé depuis l'OAM à chaque ligne.
+     * Ne sert qu'à vérifier, en comparant les images, que l'index est invalidé à temps
+     * @param enabled : faux pour recalculer l'index à chaque ligne
+     */
+    void setSpriteIndexEnabled(boolean enabled) {
+        spriteIndexEnabled = enabled;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        return STATE_SIZE;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#saveState(java.nio.ByteBuffer)
+     * Le contrôleur est d'abord rattrapé, de sorte que l'état sauvegardé ne dépende que du dernier cycle simulé ; le rattrapage
+     * pouvant lever des interruptions, le processeur doit être sauvegardé après le contrôleur. Les images (actuelle et en cours
+     * de calcul) ne font pas partie de l'état : elles sont le résultat de la simulation, pas une de ses entrées
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        catchUp();
+        for (LCDRegs r : LCD_REGS) {
+            buffer.put((byte) getReg(r));
+        }
+        videoRam.saveState(buffer);
+        oamRam.saveState(buffer);
+        buffer.putLong(nextNonIdleCycle).putLong(lcdOnCycle).putLong(copyEndCycle).putLong(currentCycle);
+        buffer.put((byte) (copy ? 1 : 0)).put((byte) winY);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer)
+     * Les caches déduits de la mémoire vidéo et des registres sont invalidés. L'image actuelle est conservée jusqu'à
+     * la prochaine période VBLANK ; si l'état a été sauvegardé au milieu d'une image, les lignes de celle-ci
+     * calculées avant la sauvegarde ne sont pas restaurées
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        loadState(buffer, null);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer, ch.epfl.gameboj.component.Savable)
+     * La mémoire vidéo et celle des sprites partagent leurs pages avec celles de la source
+     */
+    @Override
+    public void loadState(ByteBuffer buffer, Savable source) {
+        LcdController that = (LcdController) source;
+        for (LCDRegs r : LCD_REGS) {
+            setReg(r, Byte.toUnsignedInt(buffer.get()));
+        }
+        videoRam.loadState(buffer, (that == null) ? null : that.videoRam);
+        oamRam.loadState(buffer, (that == null) ? null : that.oamRam);
+        nextNonIdleCycle = buffer.getLong();
+        lcdOnCycle = buffer.getLong();
+        copyEndCycle = buffer.getLong();
+        currentCycle = buffer.getLong();
+        copy = buffer.get() != 0;
+        winY = Byte.toUnsignedInt(buffer.get());
+        deadlineFrom = Long.MAX_VALUE;
+        modeChangeFrom = Long.MAX_VALUE;
+        Arrays.fill(dirtyTileRows, true);
+        spritesByLineDirty = true;
+        /* Les lignes de l'image en cours calculées avant la sauvegarde ne sont pas restaurées */
+        if (pixelBufferFrame) {
+            selectPixelBuffer();
+        }
+    }
+
+    /**
+     * Accès à l'image actuelle générée par le controlleur LCD.
+     * Si elle a été calculée pixel par pixel, elle n'est valide que jusqu'à la fin de l'image suivante, voir setPixelBufferEnabled
      * @return L'image actuelle
      */
     public LcdImage currentImage() {
@@ -231,7 +613,7 @@ public final class LcdController implements Component, Clocked {
     }
 
     /**
-     * Méthode appelé seulement aux changements de mode, s'occupe de changer le mode, de lever les interruptions si besoin,
+     * Méthode appelée à chaque changement de mode, éventuellement en retard lorsque le processeur est arrêté, s'occupe de changer le mode, de lever les interruptions si besoin,
      *  de faire les opérations liés au mode comme la création d'image ou le calcul d'une ligne, et de faire en sorte 
      *  qu'elle sera appelé lors du prochain changement de cycle
      */
@@ -249,14 +631,20 @@ public final class LcdController implements Component, Clocked {
                 checkLCD_STATInterrupt(STATBits.INT_MODE2);
                 nextNonIdleCycle += CYCLES_IN_MODE_2;
                 if (cycleInScreen == 0) {
-                    nextImageBuilder = newImageBuilder();
-                    winY = 0;
+                    startImage();
                 }            	
             } break;
             case CYCLES_WHEN_MODE_3: {   	
                 setMode(Mode.spriteAndGraphic);
                 nextNonIdleCycle += CYCLES_IN_MODE_3;
-                computeLine();
+                if (!skippedFrame) {
+                    if (pixelBufferFrame) {
+                        computeLinePixels();
+                    }
+                    else {
+                        computeLine();
+                    }
+                }
             } break;
             case CYCLES_WHEN_MODE_0: {
                 setMode(Mode.horizontalBlank);
@@ -267,7 +655,10 @@ public final class LcdController implements Component, Clocked {
         } else {
             if (cycleInScreen == endImageComputationCycle) {
                 setMode(Mode.verticalBlank);
-                currentImage = nextImageBuilder.build();
+                ++vBlankCount;
+                if (!skippedFrame) {
+                    currentImage = pixelBufferFrame ? pixelImages[nextPixelBuffer] : nextImageBuilder.build();
+                }
                 cpu.requestInterrupt(Interrupt.VBLANK);
                 checkLCD_STATInterrupt(STATBits.INT_MODE1);
             }
@@ -380,6 +771,46 @@ public final class LcdController implements Component, Clocked {
             cpu.requestInterrupt(Cpu.Interrupt.LCD_STAT);
     }
 
+    /**
+     * Commence une nouvelle image : détermine si son calcul est sauté (voir setFrameSkip), et sinon prépare
+     * le tableau des pixels ou le builder qui la recevra
+     */
+    private void startImage() {
+        ++startedFrames;
+        skippedFrame = framesToSkip > 0;
+        if (skippedFrame) {
+            --framesToSkip;
+            ++skippedFrames;
+        }
+        else {
+            framesToSkip = frameSkip;
+            pixelBufferFrame = pixelBufferEnabled;
+            if (pixelBufferFrame) {
+                selectPixelBuffer();
+            }
+            else {
+                nextImageBuilder = newImageBuilder();
+            }
+        }
+        winY = 0;
+    }
+
+    /**
+     * Choisit, pour y calculer l'image en cours, celui des deux tableaux de pixels qui n'appartient pas à l'image actuelle,
+     * et le remet à blanc, comme le builder d'une nouvelle image. Les deux tableaux, et les images qui les représentent,
+     * sont alloués lors du premier choix
+     */
+    private void selectPixelBuffer() {
+        if (pixelBuffers == null) {
+            pixelBuffers = new byte[2][LCD_WIDTH * LCD_HEIGHT];
+            pixelImages = new LcdImage[] { new LcdImage(LCD_WIDTH, LCD_HEIGHT, pixelBuffers[0]),
+                    new LcdImage(LCD_WIDTH, LCD_HEIGHT, pixelBuffers[1]) };
+        }
+        nextPixelBuffer = (currentImage == pixelImages[0]) ? 1 : 0;
+        nextImagePixels = pixelBuffers[nextPixelBuffer];
+        Arrays.fill(nextImagePixels, (byte) 0);
+    }
+
     /**
      * Calcule la ligne actuelle et la rajoute dans le builder d'image
      */
@@ -454,6 +885,132 @@ public final class LcdController implements Component, Clocked {
         nextImageBuilder.setLine(finalLine, index);
     }
 
+    /**
+     * Calcule la ligne actuelle pixel par pixel, comme computeLine, et l'écrit dans le tableau des pixels de la future image.
+     * L'arrière-plan et la fenêtre sont d'abord placés dans lineColors, puis les sprites de chaque plan dans
+     * bgSpriteColors et fgSpriteColors, le sprite le plus prioritaire d'un pixel y étant écrit en premier
+     */
+    private void computeLinePixels() {
+        int index = getReg(LCDRegs.LY);
+        int tileOrigin = AddressMap.TILE_SOURCE[testLCDCBit(LCDCBits.TILE_SOURCE) ? 1 : 0];
+        int shiftedY = (index + getReg(LCDRegs.SCY)) % FULL_LINE_WIDTH;
+        int WX = Math.max(0, getReg(LCDRegs.WX) - WX_SHIFT);
+        int WY = getReg(LCDRegs.WY);
+        boolean bgVisible = testLCDCBit(LCDCBits.BG);
+        boolean windowVisible = testLCDCBit(LCDCBits.WIN) && 0 <= WX && WX < LCD_WIDTH && WY <= index;
+        int colors = getReg(LCDRegs.BGP);
+
+        /* Arrière-plan (vide et non transformé par BGP s'il est invisible), puis fenêtre ; à gauche de la fenêtre,
+         * l'opacité est (comme dans join) le bit de poids fort de la couleur */
+        int bgTileStartAddress = getTileStartAddress(LCDCBits.BG_AREA);
+        int scx = getReg(LCDRegs.SCX);
+        int windowStart = windowVisible ? WX : LCD_WIDTH;
+        int tile = -1, msb = 0, lsb = 0;
+        for (int x = 0; x < windowStart; ++x) {
+            int color = 0;
+            if (bgVisible) {
+                int bgX = (x + scx) % FULL_LINE_WIDTH;
+                if (bgX / PIXELS_IN_TILE != tile) {
+                    tile = bgX / PIXELS_IN_TILE;
+                    int row = decodedTileRow(tileLineAddress(bgTileStartAddress, tileOrigin, tile, shiftedY));
+                    msb = Bits.extract(row, BIT_9, LENGTH_8);
+                    lsb = Bits.clip(LENGTH_8, row);
+                }
+                color = pixelColor(msb, lsb, bgX % PIXELS_IN_TILE);
+            }
+            lineColors[x] = (byte) (bgVisible ? mapColor(colors, color) : 0);
+            lineOpacity[x] = windowVisible ? Bits.test(lineColors[x], 1) : color != 0;
+        }
+        if (windowVisible) {
+            int winTileStartAddress = getTileStartAddress(LCDCBits.WIN_AREA);
+            tile = -1;
+            for (int x = WX; x < LCD_WIDTH; ++x) {
+                int winX = x - WX;
+                if (winX / PIXELS_IN_TILE != tile) {
+                    tile = winX / PIXELS_IN_TILE;
+                    int row = decodedTileRow(tileLineAddress(winTileStartAddress, tileOrigin, tile, winY));
+                    msb = Bits.extract(row, BIT_9, LENGTH_8);
+                    lsb = Bits.clip(LENGTH_8, row);
+                }
+                int color = pixelColor(msb, lsb, winX % PIXELS_IN_TILE);
+                lineColors[x] = (byte) mapColor(colors, color);
+                lineOpacity[x] = color != 0;
+            }
+            winY++;
+        }
+
+        /* Sprites, puis composition des plans */
+        int lineStart = index * LCD_WIDTH;
+        if (testLCDCBit(LCDCBits.OBJ)) {
+            Arrays.fill(bgSpriteColors, (byte) TRANSPARENT);
+            Arrays.fill(fgSpriteColors, (byte) TRANSPARENT);
+            int count = spritesIntersectingLine(index, lineSprites);
+            for (int i = 0; i < count; ++i) {
+                int spriteIndex = Bits.clip(LENGTH_8, lineSprites[i]);
+                drawSprite(spriteIndex, testSpriteAttribut(spriteIndex, SpriteAtt.BEHIND_BG) ? bgSpriteColors : fgSpriteColors);
+            }
+            for (int x = 0; x < LCD_WIDTH; ++x) {
+                int color;
+                if (fgSpriteColors[x] != TRANSPARENT) {
+                    color = fgSpriteColors[x];
+                }
+                else if (lineOpacity[x] || bgSpriteColors[x] == TRANSPARENT) {
+                    color = lineColors[x];
+                }
+                else {
+                    color = bgSpriteColors[x];
+                }
+                nextImagePixels[lineStart + x] = (byte) color;
+            }
+        }
+        else {
+            System.arraycopy(lineColors, 0, nextImagePixels, lineStart, LCD_WIDTH);
+        }
+    }
+
+    /* Donne l'adresse de la ligne y de la tuile d'index donné de l'arrière-plan ou de la fenêtre, comme setTileLine */
+    private int tileLineAddress(int tileStartAddress, int tileOrigin, int index, int y) {
+        int shiftPlage = 0;
+        int tileIndex = read(tileStartAddress + ((y / LINES_IN_TILE) * TILES_IN_BG) + index);
+        if (!testLCDCBit(LCDCBits.TILE_SOURCE)) 
+            shiftPlage = (tileIndex < TILE_INDEX_CHOKEPOINT) ? TILE_INDEX_SHIFT : -TILE_INDEX_SHIFT;
+        return (tileOrigin + shiftPlage) + (tileIndex) * BYTES_IN_TILE + (y % LINES_IN_TILE) * BYTES_IN_LINE;
+    }
+
+    /* Ecrit dans le plan donné les pixels opaques du sprite d'index donné qui n'y sont pas déjà occupés */
+    private void drawSprite(int spriteIndex, byte[] plane) {
+        int lineInSprite = getReg(LCDRegs.LY) - (getSpriteInfo(spriteIndex, SpriteBytes.SPR_Y) - SPRITE_Y_SHIFT);
+        int size = getSpriteSize();
+        int tileIndex = getSpriteInfo(spriteIndex, SpriteBytes.SPR_INDEX);
+        int address =  AddressMap.TILE_SOURCE[1] + (tileIndex * BYTES_IN_TILE) + 
+                (testSpriteAttribut(spriteIndex, SpriteAtt.FLIP_V) ? (size - 1 - lineInSprite) * BYTES_IN_LINE : lineInSprite * BYTES_IN_LINE);
+        int row = decodedTileRow(address);
+        int msb = Bits.extract(row, BIT_9, LENGTH_8);
+        int lsb = Bits.clip(LENGTH_8, row);
+        boolean flipH = testSpriteAttribut(spriteIndex, SpriteAtt.FLIP_H);
+        int spriteColours = testSpriteAttribut(spriteIndex, SpriteAtt.PALETTE) ? getReg(LCDRegs.OBP1) : getReg(LCDRegs.OBP0);
+        int left = getSpriteInfo(spriteIndex, SpriteBytes.SPR_X) - SPRITE_X_SHIFT;
+        for (int p = 0; p < PIXELS_IN_TILE; ++p) {
+            int x = left + p;
+            if (0 <= x && x < LCD_WIDTH && plane[x] == TRANSPARENT) {
+                int color = pixelColor(msb, lsb, flipH ? BIT_8 - p : p);
+                if (color != 0) {
+                    plane[x] = (byte) mapColor(spriteColours, color);
+                }
+            }
+        }
+    }
+
+    /* Donne la couleur formée par les bits d'index donné des octets inversés de poids fort et faible d'une ligne de tuile */
+    private static int pixelColor(int msb, int lsb, int bit) {
+        return (Bits.test(msb, bit) ? 0b10 : 0) | (Bits.test(lsb, bit) ? 0b01 : 0);
+    }
+
+    /* Applique la palette donnée à une couleur */
+    private static int mapColor(int palette, int color) {
+        return (palette >>> (BITS_IN_A_COLOR * color)) & COLOR_MASK;
+    }
+
     /* Donne l'adresse de départ des tuiles selon le LCDCBits*/
     private int getTileStartAddress(LCDCBits WinOrBg) {
         return AddressMap.BG_DISPLAY_DATA[testLCDCBit(WinOrBg) ? 1 : 0];
@@ -466,7 +1023,8 @@ public final class LcdController implements Component, Clocked {
         if (!testLCDCBit(LCDCBits.TILE_SOURCE)) 
             shiftPlage = (tileIndex < TILE_INDEX_CHOKEPOINT) ? TILE_INDEX_SHIFT : -TILE_INDEX_SHIFT;
         int address = (tileOrigin + shiftPlage) + (tileIndex) * BYTES_IN_TILE + (y % LINES_IN_TILE) * BYTES_IN_LINE;
-        line.setBytes(index, readAndReverse(address + 1), readAndReverse(address));
+        int row = decodedTileRow(address);
+        line.setBytes(index, Bits.extract(row, BIT_9, LENGTH_8), Bits.clip(LENGTH_8, row));
     }
 
 
@@ -483,10 +1041,13 @@ public final class LcdController implements Component, Clocked {
         /*Met le sprite dans la ligne */
         LcdImageLine.Builder spriteLineBuilder = new LcdImageLine.Builder(LCD_WIDTH);        
         LcdImageLine spriteLine;
+        int row = decodedTileRow(address);
+        int msb = Bits.extract(row, BIT_9, LENGTH_8);
+        int lsb = Bits.clip(LENGTH_8, row);
         if (testSpriteAttribut(spriteIndex, SpriteAtt.FLIP_H))
-            spriteLine = spriteLineBuilder.setBytes(0, read(address + 1), read(address)).build();
+            spriteLine = spriteLineBuilder.setBytes(0, Bits.reverse8(msb), Bits.reverse8(lsb)).build();
         else
-            spriteLine = spriteLineBuilder.setBytes(0, readAndReverse(address + 1), readAndReverse(address)).build();
+            spriteLine = spriteLineBuilder.setBytes(0, msb, lsb).build();
 
         /*Met le sprite à la bonne position et change sa couleur */
         int spriteColours = testSpriteAttribut(spriteIndex, SpriteAtt.PALETTE) ? getReg(LCDRegs.OBP1) : getReg(LCDRegs.OBP0);
@@ -502,18 +1063,42 @@ public final class LcdController implements Component, Clocked {
     /* Calcule les sprites sur la ligne d'index donnée, les trie et renvoie un tableau */
     private int[] spritesIntersectingLine(int y) {
         int[] bestSprites = new int[MAX_SPRITES_IN_LINE];
-        int index = 0;
+        return Arrays.copyOf(bestSprites, spritesIntersectingLine(y, bestSprites));
+    }
+
+    /* Place dans le tableau donné les sprites sur la ligne d'index donnée, triés, et retourne leur nombre */
+    private int spritesIntersectingLine(int y, int[] bestSprites) {
+        if (spritesByLineDirty || !spriteIndexEnabled) {
+            indexSpritesByLine();
+        }
+        int count = spriteCountByLine[y];
+        System.arraycopy(spritesByLine, y * MAX_SPRITES_IN_LINE, bestSprites, 0, count);
+        return count;
+    }
+
+    /* Recalcule, pour chaque ligne de l'écran, ses (au plus 10) premiers sprites dans l'ordre de l'OAM, triés comme par
+     * spritesIntersectingLine. L'index n'est recalculé qu'à la première ligne qui suit une modification de la position
+     * d'un sprite ou de leur taille, ce qui arrive en général une fois par image, après la copie DMA */
+    private void indexSpritesByLine() {
+        Arrays.fill(spriteCountByLine, 0);
         int size = getSpriteSize();
-        for(int i = 0; i < SPRITES_IN_OAM && index < bestSprites.length; ++i ) {
-            int spriteX = getSpriteInfo(i, SpriteBytes.SPR_X);
+        for (int i = 0; i < SPRITES_IN_OAM; ++i) {
+            int sprite = Bits.make16(getSpriteInfo(i, SpriteBytes.SPR_X), i);
             int spriteY = getSpriteInfo(i, SpriteBytes.SPR_Y) - SPRITE_Y_SHIFT;
-            if (y >= spriteY && y < spriteY + size) {
-                bestSprites[index++] = Bits.make16(spriteX, i);
+            for (int y = Math.max(0, spriteY); y < Math.min(LCD_HEIGHT, spriteY + size); ++y) {
+                int count = spriteCountByLine[y];
+                if (count < MAX_SPRITES_IN_LINE) {
+                    int start = y * MAX_SPRITES_IN_LINE;
+                    int j = start + count;
+                    for (; j > start && spritesByLine[j - 1] > sprite; --j) {
+                        spritesByLine[j] = spritesByLine[j - 1];
+                    }
+                    spritesByLine[j] = sprite;
+                    spriteCountByLine[y] = count + 1;
+                }
             }
         }
-        Arrays.sort(bestSprites, 0, index);
-        bestSprites = Arrays.copyOf(bestSprites, index);
-        return bestSprites;
+        spritesByLineDirty = false;
     }
 
     /*Lit en inversant les sprites à cette adresse */
@@ -521,6 +1106,21 @@ public final class LcdController implements Component, Clocked {
         return Bits.reverse8(read(address));
     }
 
+    /* Donne la ligne de tuile commençant à l'adresse donnée, octets inversés comme par readAndReverse, celui de poids fort
+     * dans les bits 8 à 15. La ligne n'est relue depuis la mémoire vidéo que si elle y a été modifiée depuis son dernier décodage */
+    private int decodedTileRow(int address) {
+        int row = (address - TILE_DATA_START) / BYTES_IN_LINE;
+        ++tileCacheLookups;
+        if (dirtyTileRows[row] || !tileCacheEnabled) {
+            decodedTileRows[row] = Bits.make16(readAndReverse(address + 1), readAndReverse(address));
+            dirtyTileRows[row] = false;
+        }
+        else {
+            ++tileCacheHits;
+        }
+        return decodedTileRows[row];
+    }
+
     /*Calcule la ligne de background selon si elle est visible, et si oui, change sa couleur avec la palette donnée*/
     private LcdImageLine computeBgLine(LcdImageLine.Builder bgLineBuilder, boolean bgVisible, int colours) {
         return bgVisible ?
@@ -2,18 +2,21 @@ package ch.epfl.gameboj.component.lcd;
 import static ch.epfl.gameboj.Preconditions.checkArgument;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 /**
- * Classe chargée de représenter une image LCD
+ * Classe chargée de représenter une image LCD.
+ * Les images construites à partir de lignes sont immuables. Celles construites sur un tableau de pixels,
+ * que LcdController fournit lorsqu'il calcule les images pixel par pixel, sont des vues modifiables de ses tampons :
+ * leurs pixels ne restent valides que jusqu'à la fin de l'image suivante, à copier pour les conserver
  * @author Niels Escarfail (282347)
  * @author Vincent Yuan (287639)
  */
 
 public final class LcdImage {
 	private final List<LcdImageLine> lineList; 
+	private final byte[] pixels;
 	private final int width;
 	private final int height;
 	
@@ -33,6 +36,24 @@ public final class LcdImage {
     	this.width = width;
     	this.height = height;
     	lineList = Collections.unmodifiableList(new ArrayList<>(listOfLine));
+    	pixels = null;
+	}
+	
+	/**
+ 	* Construit une Image LCD représentée directement par la couleur de ses pixels, ligne après ligne.
+ 	* Le tableau n'est pas copié : l'image change avec lui, voir LcdController.setPixelBufferEnabled
+ 	* @param width: largeur de l'image
+ 	* @param height: hauteur de l'image
+ 	* @param pixels: couleur (entre 0 et 3) de chaque pixel, celui d'abscisse x et d'ordonnée y étant à l'index y * width + x
+ 	* @throws IllegalArgumentException si la largeur ou la hauteur est nulle ou inférieure à 0, ou ne correspond pas au tableau
+ 	*/
+	LcdImage(int width, int height, byte[] pixels) {
+    	checkArgument(width > 0 && height > 0);
+    	checkArgument(pixels.length == width * height);
+    	this.width = width;
+    	this.height = height;
+    	this.pixels = pixels;
+    	lineList = null;
 	}
 	
 	/**
@@ -60,6 +81,9 @@ public final class LcdImage {
  	*/
 	public int get(int x, int y) {    	
 	    checkArgument(x >= 0 && y >= 0 && x < width && y < height);
+	    if (pixels != null) {
+	        return pixels[y * width + x];
+	    }
     	int bit1 = (lineList.get(y).msb().testBit(x) ? 1 : 0) << 1;
     	int bit0 = lineList.get(y).lsb().testBit(x) ? 1 : 0;
     	return bit1 | bit0;
@@ -69,18 +93,47 @@ public final class LcdImage {
 	
 	/* (non-Javadoc)
  	* @see java.lang.Object#equals(java.lang.Object)
+ 	* Deux images sont égales si elles ont les mêmes dimensions et les mêmes pixels, quelle que soit leur représentation
  	*/
 	@Override
 	public boolean equals(Object o) {  
-    	return o instanceof LcdImage && Arrays.deepEquals(((LcdImage)o).lineList.toArray(), this.lineList.toArray());
+    	if (!(o instanceof LcdImage)) {
+        	return false;
+    	}
+    	LcdImage that = (LcdImage) o;
+    	if (that.width != width || that.height != height) {
+        	return false;
+    	}
+    	for (int y = 0; y < height; ++y) {
+        	if (pixels == null && that.pixels == null) {
+            	if (!lineList.get(y).msb().equals(that.lineList.get(y).msb()) || !lineList.get(y).lsb().equals(that.lineList.get(y).lsb())) {
+                	return false;
+            	}
+        	}
+        	else {
+            	for (int x = 0; x < width; ++x) {
+                	if (get(x, y) != that.get(x, y)) {
+                    	return false;
+                	}
+            	}
+        	}
+    	}
+    	return true;
 	}
 
 	/* (non-Javadoc)
  	* @see java.lang.Object#hashCode()
+ 	* Ne dépend que des dimensions et des pixels, comme equals
  	*/
 	@Override
 	public int hashCode() {
-    	return Objects.hash(width, height, Objects.hashCode(lineList));
+    	int hash = Objects.hash(width, height);
+    	for (int y = 0; y < height; ++y) {
+        	for (int x = 0; x < width; ++x) {
+            	hash = 31 * hash + get(x, y);
+        	}
+    	}
+    	return hash;
 	}
 	
 	/**
@@ -99,10 +152,8 @@ public final class LcdImage {
      	*/
     	public Builder(int width, int height) {
         	checkArgument(width > 0  && height > 0);
-        	listOfLine = new ArrayList<LcdImageLine>();
-        	for (int i = 0; i < height; ++i) { 
-        	     listOfLine.add(new LcdImageLine.Builder(width).build());
-        	}
+        	/* Les lignes étant immuables, une même ligne vide sert pour toutes les lignes */
+        	listOfLine = new ArrayList<LcdImageLine>(Collections.nCopies(height, new LcdImageLine.Builder(width).build()));
         	this.width = width;
         	this.height = height;
     	}
@@ -2,10 +2,12 @@ package ch.epfl.gameboj.component.memory;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Savable;
 import ch.epfl.gameboj.component.cartridge.Cartridge;
 
 /**
@@ -13,7 +15,7 @@ import ch.epfl.gameboj.component.cartridge.Cartridge;
  * @author Vincent Yuan (287639)
  * @author Niels Escarfail (282347)
  */
-public final class BootRomController implements Component {
+public final class BootRomController implements Component, Savable {
     private Rom bootRom;
     private boolean isUsed;
     private Cartridge cartridge;
@@ -59,6 +61,49 @@ public final class BootRomController implements Component {
         }
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#handlesAddress(int)
+     */
+    @Override
+    public boolean handlesAddress(int address) {
+        return address == AddressMap.REG_BOOT_ROM_DISABLE || cartridge.handlesAddress(address);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#stateSize()
+     * L'état de la cartouche suit celui du contrôleur
+     */
+    @Override
+    public int stateSize() {
+        return Byte.BYTES + cartridge.stateSize();
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) (isUsed ? 1 : 0));
+        cartridge.saveState(buffer);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        loadState(buffer, null);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer, ch.epfl.gameboj.component.Savable)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer, Savable source) {
+        isUsed = buffer.get() != 0;
+        cartridge.loadState(buffer, (source == null) ? null : ((BootRomController) source).cartridge);
+    }
+
     /**
      * @param address : l'addresse donnée dans read
      * @return si l'addresse doit être interceptée par le BootRomController pour être lue.
@@ -3,16 +3,40 @@ package ch.epfl.gameboj.component.memory;
 import static ch.epfl.gameboj.Preconditions.checkArgument;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Objects;
 
+import ch.epfl.gameboj.component.Savable;
+
 /**
- * Classe représentant une mémoire vive
+ * Classe représentant une mémoire vive, découpée en pages de 256 octets.
+ * Elle peut suivre les pages écrites depuis le dernier effacement du suivi,
+ * afin que les sauvegardes incrémentales, le hachage ou la synchronisation de son contenu ne parcourent que celles-ci.
+ * Ses pages peuvent être partagées avec d'autres mémoires, voir shareFrom : une page partagée n'est copiée
+ * qu'à la première écriture. Initialement, toutes les pages partagent une même page nulle.
+ * Tant qu'elle n'a partagé aucune page avec une autre mémoire, son contenu est stocké d'un seul tenant dès sa première écriture,
+ * et ses accès ne passent alors ni par les pages ni par l'ensemble des pages partagées
  * @author Vincent Yuan (287639)
  * @author Niels Escarfail (282347)
  */
-public class Ram {
+public class Ram implements Savable {
+
+    /**
+     * Nombre d'octets d'une page suivie
+     */
+    public static final int PAGE_SIZE = 256;
+    private static final int PAGE_BITS = Integer.numberOfTrailingZeros(PAGE_SIZE);
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int WORD_BITS = Integer.numberOfTrailingZeros(Long.SIZE);
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
 
-    private final byte[] ramData;
+    private final int size;
+    private byte[] data;
+    private byte[][] pages;
+    private boolean fresh = true;
+    private final long[] sharedPages;
+    private long[] dirtyPages;
 
     /**
      * Construit une nouvelle mémoire vive de taille donnée en octet
@@ -21,7 +45,11 @@ public class Ram {
      */
     public Ram(int size){
         checkArgument(size >= 0); 
-        ramData = new byte[size];
+        this.size = size;
+        pages = new byte[pageCount()][];
+        Arrays.fill(pages, ZERO_PAGE);
+        sharedPages = new long[(pages.length + Long.SIZE - 1) >>> WORD_BITS];
+        markAllPages(sharedPages);
     }
 
     /**
@@ -29,7 +57,7 @@ public class Ram {
      * @return la taille, en octet, de la mémoire
      */
     public int size() {
-        return ramData.length;
+        return size;
     }
 
     /**
@@ -39,10 +67,12 @@ public class Ram {
      * @return l'octet se trouvant à l'index donné
      */
     public int read(int index) {
-        if((index < 0) || (index > ramData.length)){
-            throw new IndexOutOfBoundsException();
+        Objects.checkIndex(index, size);
+        byte[] contents = data;
+        if (contents != null) {
+            return Byte.toUnsignedInt(contents[index]);
         }
-        return Byte.toUnsignedInt(ramData[index]);
+        return Byte.toUnsignedInt(pages[index >>> PAGE_BITS][index & PAGE_MASK]);
     }
 
     /**
@@ -53,9 +83,247 @@ public class Ram {
      * @throws IllegalArgumentException si la valeur n'est pas une valeur 8 bits
      */
     public void write(int index, int value) {
-        Objects.checkIndex(index, ramData.length);
+        Objects.checkIndex(index, size);
         checkBits8(value);
-        ramData[index] = (byte) value;
+        int page = index >>> PAGE_BITS;
+        if (data == null && fresh) {
+            useContiguousData();
+        }
+        byte[] contents = data;
+        if (contents != null) {
+            contents[index] = (byte) value;
+        }
+        else {
+            if ((sharedPages[page >>> WORD_BITS] & (1L << page)) != 0) {
+                pages[page] = pages[page].clone();
+                sharedPages[page >>> WORD_BITS] &= ~(1L << page);
+            }
+            pages[page][index & PAGE_MASK] = (byte) value;
+        }
+        if (dirtyPages != null) {
+            dirtyPages[page >>> WORD_BITS] |= 1L << page;
+        }
+    }
+
+    /**
+     * Active ou désactive le suivi des pages écrites (désactivé par défaut). À son activation, toutes les pages sont
+     * considérées comme écrites, leur contenu n'ayant pas été suivi jusque-là
+     * @param enabled : vrai pour activer le suivi
+     */
+    public void setDirtyTrackingEnabled(boolean enabled) {
+        if (!enabled) {
+            dirtyPages = null;
+        }
+        else if (dirtyPages == null) {
+            dirtyPages = new long[sharedPages.length];
+            markAllPages(dirtyPages);
+        }
+    }
+
+    /**
+     * Retourne vrai ssi le suivi des pages écrites est activé
+     * @return vrai ssi le suivi est activé
+     */
+    public boolean isDirtyTrackingEnabled() {
+        return dirtyPages != null;
+    }
+
+    /**
+     * Retourne le nombre de pages de la mémoire, la dernière pouvant être incomplète
+     * @return le nombre de pages
+     */
+    public int pageCount() {
+        return (size + PAGE_SIZE - 1) >>> PAGE_BITS;
+    }
+
+    /**
+     * Retourne vrai si la page donnée a pu être écrite depuis le dernier effacement du suivi, ce qui est toujours le cas
+     * lorsque le suivi est désactivé
+     * @param page : l'index de la page, qui contient les octets d'index page * PAGE_SIZE à (page + 1) * PAGE_SIZE (exclu)
+     * @throws IndexOutOfBoundsException si l'index est invalide
+     * @return vrai si la page a pu être écrite
+     */
+    public boolean isPageDirty(int page) {
+        Objects.checkIndex(page, pageCount());
+        return dirtyPages == null || (dirtyPages[page >>> WORD_BITS] & (1L << page)) != 0;
+    }
+
+    /**
+     * Retourne l'index de la première page ayant pu être écrite depuis le dernier effacement du suivi à partir de la page donnée
+     * @param page : l'index de la première page considérée, positif
+     * @throws IllegalArgumentException si l'index est négatif
+     * @return l'index de la première page écrite, supérieur ou égal à celui donné, ou -1 s'il n'y en a pas
+     */
+    public int nextDirtyPage(int page) {
+        checkArgument(page >= 0);
+        if (page >= pageCount()) {
+            return -1;
+        }
+        if (dirtyPages == null) {
+            return page;
+        }
+        int word = page >>> WORD_BITS;
+        long bits = dirtyPages[word] & (-1L << page);
+        while (bits == 0) {
+            if (++word == dirtyPages.length) {
+                return -1;
+            }
+            bits = dirtyPages[word];
+        }
+        return (word << WORD_BITS) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Efface le suivi des pages écrites : plus aucune page n'est considérée comme écrite, jusqu'à la prochaine écriture
+     */
+    public void clearDirtyPages() {
+        if (dirtyPages != null) {
+            Arrays.fill(dirtyPages, 0);
+        }
+    }
+
+    /**
+     * Remplace le contenu de la mémoire par celui de la mémoire donnée, de même taille, sans le copier :
+     * les deux mémoires partagent toutes leurs pages, chacune ne copiant une page qu'à sa première écriture.
+     * Si le suivi des pages écrites est activé, toutes les pages sont considérées comme écrites
+     * @param that : la mémoire donnée
+     * @throws NullPointerException si la mémoire donnée est nulle
+     * @throws IllegalArgumentException si les deux mémoires n'ont pas la même taille
+     */
+    public void shareFrom(Ram that) {
+        checkArgument(that.size == size);
+        if (that == this) {
+            return;
+        }
+        that.usePages();
+        usePages();
+        System.arraycopy(that.pages, 0, pages, 0, pages.length);
+        markAllPages(that.sharedPages);
+        markAllPages(sharedPages);
+        if (dirtyPages != null) {
+            markAllPages(dirtyPages);
+        }
+    }
+
+    /**
+     * Retourne le nombre de pages qui n'ont pas été copiées depuis qu'elles sont partagées (y compris avec la page nulle initiale)
+     * @return le nombre de pages partagées
+     */
+    public int sharedPageCount() {
+        if (data != null) {
+            return 0;
+        }
+        int count = 0;
+        for (long word : sharedPages) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        return size;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        if (data != null) {
+            buffer.put(data);
+            return;
+        }
+        for (int page = 0; page < pages.length; ++page) {
+            buffer.put(pages[page], 0, pageLength(page));
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        if (data == null && fresh) {
+            useContiguousData();
+        }
+        if (data != null) {
+            buffer.get(data);
+        }
+        else {
+            for (int page = 0; page < pages.length; ++page) {
+                if ((sharedPages[page >>> WORD_BITS] & (1L << page)) != 0) {
+                    pages[page] = new byte[PAGE_SIZE];
+                    sharedPages[page >>> WORD_BITS] &= ~(1L << page);
+                }
+                buffer.get(pages[page], 0, pageLength(page));
+            }
+        }
+        if (dirtyPages != null) {
+            markAllPages(dirtyPages);
+        }
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Savable#loadState(java.nio.ByteBuffer, ch.epfl.gameboj.component.Savable)
+     * Les octets de l'état sont sautés, les pages étant partagées avec celles de la source, voir shareFrom
+     */
+    @Override
+    public void loadState(ByteBuffer buffer, Savable source) {
+        if (source == null) {
+            loadState(buffer);
+        }
+        else {
+            buffer.position(buffer.position() + size);
+            shareFrom((Ram) source);
+        }
+    }
+
+    /**
+     * Remplace les pages, toutes encore nulles, d'une mémoire n'ayant jamais partagé de page par un contenu d'un seul tenant
+     */
+    private void useContiguousData() {
+        fresh = false;
+        data = new byte[size];
+        pages = null;
+        Arrays.fill(sharedPages, 0);
+    }
+
+    /**
+     * Découpe en pages le contenu d'un seul tenant de la mémoire, s'il existe, avant qu'elle partage ses pages
+     */
+    private void usePages() {
+        fresh = false;
+        if (data != null) {
+            pages = new byte[pageCount()][];
+            for (int page = 0; page < pages.length; ++page) {
+                pages[page] = Arrays.copyOfRange(data, page << PAGE_BITS, (page + 1) << PAGE_BITS);
+            }
+            data = null;
+        }
+    }
+
+    /**
+     * Retourne le nombre d'octets utilisés de la page donnée, la dernière pouvant être incomplète
+     * @param page : l'index de la page
+     * @return le nombre d'octets de la page
+     */
+    private int pageLength(int page) {
+        return Math.min(PAGE_SIZE, size - (page << PAGE_BITS));
+    }
+
+    /**
+     * Met à 1 les bits de toutes les pages dans l'ensemble de pages donné
+     * @param bits : l'ensemble de pages, un bit par page
+     */
+    private void markAllPages(long[] bits) {
+        Arrays.fill(bits, -1L);
+        int lastBits = pageCount() & (Long.SIZE - 1);
+        if (lastBits != 0) {
+            bits[bits.length - 1] = (1L << lastBits) - 1;
+        }
+    }
 }
@@ -80,4 +80,12 @@ public final class RamController implements Component{
             ramControlled.write(address - startAddress, data);
         }
     }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#handlesAddress(int)
+     */
+    @Override
+    public boolean handlesAddress(int address) {
+        return (startAddress <= address) && (address < endAddress);
+    }
 }
@@ -1,16 +1,20 @@
 package ch.epfl.gameboj.component.memory;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
 /**
- * Classe représentant une mémoire morte 
+ * Classe représentant une mémoire morte, dont le contenu est soit un tableau, soit un tampon
+ * (typiquement la projection en mémoire d'un fichier) lu sans copie
  * @author Vincent Yuan (287639)
  * @author Niels Escarfail (282347)
  */
 public final class Rom {
 
     private final byte[] romData;
+    private final ByteBuffer romBuffer;
+    private int hash;
 
     /**
      * Constructeur de la mémoire morte, dont le contenu et la taille sont ceux du tableau lancé en argument
@@ -20,6 +24,58 @@ public final class Rom {
     public Rom(byte[] data){
         Objects.requireNonNull(data);
         romData = Arrays.copyOf(data, data.length);
+        romBuffer = null;
+    }
+
+    /**
+     * Construit une mémoire morte dont le contenu est le tampon donné lui-même, sans copie
+     * @param data : le tampon, à lire uniquement et allant de 0 à sa capacité
+     */
+    private Rom(ByteBuffer data) {
+        romBuffer = data;
+        romData = null;
+    }
+
+    /**
+     * Construit une mémoire morte dont le contenu est le tableau donné lui-même, sans copie
+     * @param data : le tableau, qui ne doit plus être modifié
+     * @param hash : le hachage du contenu du tableau
+     */
+    private Rom(byte[] data, int hash) {
+        romData = data;
+        romBuffer = null;
+        this.hash = hash;
+    }
+
+    /**
+     * Retourne une mémoire morte dont le contenu est le tableau donné lui-même, sans copie, utilisée par le dépôt
+     * pour chercher une mémoire morte de même contenu
+     * @param data : le tableau, qui ne doit pas être modifié tant que la mémoire morte est utilisée
+     * @return une mémoire morte partageant le tableau
+     */
+    static Rom wrap(byte[] data) {
+        return new Rom(data, 0);
+    }
+
+    /**
+     * Retourne une mémoire morte dont le contenu est celui du tampon donné, entre sa position et sa limite, sans copie.
+     * Le tampon ne doit plus être modifié ; s'il s'agit de la projection d'un fichier, celui-ci ne doit pas l'être non plus
+     * @param data : le tampon, par exemple obtenu par FileChannel.map
+     * @throws NullPointerException si le tampon est nul
+     * @return une mémoire morte lisant le tampon
+     */
+    public static Rom ofBuffer(ByteBuffer data) {
+        return new Rom(data.asReadOnlyBuffer().slice());
+    }
+
+    /**
+     * Retourne une copie de la mémoire morte dont le tableau est distinct, le hachage étant conservé
+     * @return une copie de la mémoire morte
+     */
+    Rom copy() {
+        byte[] data = new byte[size()];
+        view().get(data);
+        return new Rom(data, hash);
     }
 
     /**
@@ -27,7 +83,7 @@ public final class Rom {
      * @return la taille en octet de la mémoire morte
      */
     public int size() {
-        return romData.length;
+        return (romData != null) ? romData.length : romBuffer.capacity();
     }
 
     /**
@@ -37,11 +93,59 @@ public final class Rom {
      * @return l'octet se trouvant à l'index donné
      */
     public int read(int index) {
-        if((0 > index) || (index > romData.length)){
+        if((0 > index) || (index > size())){
             throw new IndexOutOfBoundsException();
         }
-        return Byte.toUnsignedInt(romData[index]);
+        return Byte.toUnsignedInt((romData != null) ? romData[index] : romBuffer.get(index));
     }
 
+    /**
+     * Retourne vrai ssi la mémoire morte contient exactement les octets du tableau donné
+     * @param data : le tableau donné
+     * @throws NullPointerException si le tableau est nul
+     * @return vrai si le contenu de la mémoire morte est égal à celui du tableau
+     */
+    public boolean contentEquals(byte[] data) {
+        return (romData != null) ? Arrays.equals(romData, data) : view().equals(ByteBuffer.wrap(data));
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     * Deux mémoires mortes sont égales si elles ont le même contenu
+     */
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof Rom) && (o == this || (hashCode() == o.hashCode() && view().equals(((Rom) o).view())));
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     * Calculé au premier appel seulement, le contenu ne changeant pas, et identique quelle que soit la représentation du contenu
+     */
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            if (romData != null) {
+                h = Arrays.hashCode(romData);
+            }
+            else {
+                h = 1;
+                for (int i = 0; i < romBuffer.capacity(); ++i) {
+                    h = 31 * h + romBuffer.get(i);
+                }
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * Retourne un tampon, à lire uniquement, dont le contenu est celui de la mémoire morte
+     * @return un tampon allant de 0 à la taille de la mémoire morte
+     */
+    private ByteBuffer view() {
+        return (romData != null) ? ByteBuffer.wrap(romData) : romBuffer.duplicate();
+    }
 
 }
\ No newline at end of file
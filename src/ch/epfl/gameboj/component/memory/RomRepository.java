@@ -0,0 +1,61 @@
+package ch.epfl.gameboj.component.memory;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+/**
+ * Classe chargée de partager les mémoires mortes de même contenu : au lieu d'une copie par cartouche,
+ * toutes les cartouches dont le fichier a le même contenu utilisent la même mémoire morte, qui est immuable.
+ * Les mémoires mortes ne sont retenues que faiblement, et sont donc oubliées dès que plus aucune cartouche ne les utilise.
+ * Les méthodes peuvent être appelées depuis plusieurs fils d'exécution
+ * @author Vincent Yuan (287639)
+ * @author Niels Escarfail (282347)
+ */
+public final class RomRepository {
+    private static final RomRepository SHARED = new RomRepository();
+
+    private final Map<Rom, WeakReference<Rom>> roms = new WeakHashMap<>();
+
+    /**
+     * Retourne le dépôt utilisé par Cartridge.ofFile, commun à toute la machine virtuelle
+     * @return le dépôt commun
+     */
+    public static RomRepository shared() {
+        return SHARED;
+    }
+
+    /**
+     * Retourne la mémoire morte du dépôt dont le contenu est celui du tableau donné, après l'avoir créée
+     * (en copiant le tableau) si le dépôt n'en contient pas. Le tableau n'est pas retenu par le dépôt
+     * @param data : le contenu de la mémoire morte
+     * @throws NullPointerException si le tableau est nul
+     * @return la mémoire morte partagée ayant ce contenu
+     */
+    public Rom intern(byte[] data) {
+        Objects.requireNonNull(data);
+        /* Le hachage du contenu est calculé hors du verrou, une seule fois, puis conservé par la copie éventuelle */
+        Rom probe = Rom.wrap(data);
+        probe.hashCode();
+        synchronized (roms) {
+            WeakReference<Rom> reference = roms.get(probe);
+            Rom shared = (reference == null) ? null : reference.get();
+            if (shared == null) {
+                shared = probe.copy();
+                roms.put(shared, new WeakReference<>(shared));
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * Retourne le nombre de mémoires mortes du dépôt encore utilisées
+     * @return le nombre de mémoires mortes du dépôt
+     */
+    public int size() {
+        synchronized (roms) {
+            return (int) roms.values().stream().filter(r -> r.get() != null).count();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ch.epfl.gameboj;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ch.epfl.gameboj.TestRoms.GAME;
+import static ch.epfl.gameboj.TestRoms.emptyRom;
+import static ch.epfl.gameboj.TestRoms.newGameBoyWithGame;
+import static ch.epfl.gameboj.TestRoms.pressScriptedKeys;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.BatchRunner.Job;
+import ch.epfl.gameboj.BatchRunner.Output;
+import ch.epfl.gameboj.BatchRunner.Result;
+import ch.epfl.gameboj.component.Joypad.Key;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.lcd.LcdImage;
+
+class BatchRunnerTest {
+    @Test
+    void constructorsFailForInvalidArguments() throws IOException {
+        File rom = emptyRom();
+        assertThrows(IllegalArgumentException.class, () -> new BatchRunner(0));
+        assertThrows(NullPointerException.class, () -> new Job(null, null, 1, EnumSet.noneOf(Output.class)));
+        assertThrows(NullPointerException.class, () -> new Job(rom, null, 1, null));
+        assertThrows(IllegalArgumentException.class, () -> new Job(rom, null, -1, EnumSet.noneOf(Output.class)));
+    }
+
+    @Test
+    void runReportsEveryJobAndOnlyTheWantedOutputs() throws IOException, InterruptedException {
+        File rom = emptyRom();
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            Set<Output> outputs = (i % 2 == 0) ? EnumSet.allOf(Output.class) : EnumSet.noneOf(Output.class);
+            jobs.add(new Job(rom, null, i, outputs));
+        }
+        List<Result> results = new ArrayList<>();
+        BatchRunner.Summary summary;
+        try (BatchRunner runner = new BatchRunner(4)) {
+            summary = runner.run(jobs, results::add);
+        }
+        assertEquals(jobs.size(), results.size());
+        assertEquals(jobs.size(), summary.jobCount());
+        assertEquals(0, summary.failureCount());
+        assertEquals(28, summary.frameCount());
+        for (Result result : results) {
+            assertNull(result.error());
+            assertEquals(result.job().frames(), result.frameCount());
+            assertTrue(result.nanos() > 0);
+            boolean wanted = result.job().outputs().contains(Output.IMAGE);
+            assertEquals(wanted, result.image() != null);
+            assertEquals(wanted, result.serialOutput() != null);
+            assertEquals(wanted, result.workRam() != null);
+        }
+    }
+
+    @Test
+    void failingJobDoesNotStopTheOthers() throws IOException, InterruptedException {
+        File missing = new File(emptyRom().getPath() + ".missing");
+        List<Job> jobs = List.of(new Job(missing, null, 1, EnumSet.allOf(Output.class)),
+                new Job(emptyRom(), null, 1, EnumSet.allOf(Output.class)));
+        List<Result> results = new ArrayList<>();
+        try (BatchRunner runner = new BatchRunner(2)) {
+            assertEquals(1, runner.run(jobs, results::add).failureCount());
+        }
+        assertEquals(2, results.size());
+        for (Result result : results) {
+            assertEquals(result.job().rom() == missing, result.error() != null);
+        }
+    }
+
+    @Test
+    void replayedJobsGiveTheSameResultsAsASequentialReplay() throws IOException, InterruptedException {
+        File rom = emptyRom();
+        GameBoy gb = new GameBoy(Cartridge.ofFile(rom));
+        InputLog.Recorder recorder = new InputLog.Recorder(gb, false);
+        for (int i = 0; i < 10; ++i) {
+            if (i == 3) {
+                gb.joypad().keyPressed(Key.A);
+            }
+            gb.bus().write(AddressMap.WORK_RAM_START + i, i);
+            recorder.runFrame();
+        }
+        InputLog log = recorder.log();
+
+        GameBoy expected = new GameBoy(Cartridge.ofFile(rom));
+        InputLog.Replayer replayer = new InputLog.Replayer(expected, log, false);
+        for (int i = 0; i < 10; ++i) {
+            replayer.runFrame();
+        }
+        byte[] expectedRam = new byte[AddressMap.WORK_RAM_SIZE];
+        for (int i = 0; i < expectedRam.length; ++i) {
+            expectedRam[i] = (byte) expected.bus().read(AddressMap.WORK_RAM_START + i);
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            jobs.add(new Job(rom, log, 10, EnumSet.of(Output.WORK_RAM)));
+        }
+        try (BatchRunner runner = new BatchRunner(3)) {
+            runner.run(jobs, result -> {
+                assertNull(result.error());
+                assertNotNull(result.workRam());
+                assertArrayEquals(expectedRam, result.workRam());
+            });
+        }
+    }
+
+    @Test
+    void gameJobsGiveTheSameResultsAsASequentialReplay() throws IOException, InterruptedException {
+        int frames = 240;
+        GameBoy gb = newGameBoyWithGame();
+        InputLog.Recorder recorder = new InputLog.Recorder(gb, false);
+        for (int f = 0; f < frames; ++f) {
+            pressScriptedKeys(gb.joypad(), f, 0);
+            recorder.runFrame();
+        }
+        InputLog log = recorder.log();
+
+        GameBoy expected = newGameBoyWithGame();
+        InputLog.Replayer replayer = new InputLog.Replayer(expected, log, false);
+        for (int f = 0; f < frames; ++f) {
+            replayer.runFrame();
+        }
+        LcdImage expectedImage = expected.lcdController().currentImage();
+        byte[] expectedRam = new byte[AddressMap.WORK_RAM_SIZE];
+        for (int i = 0; i < expectedRam.length; ++i) {
+            expectedRam[i] = (byte) expected.bus().read(AddressMap.WORK_RAM_START + i);
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            jobs.add(new Job(GAME, log, frames, EnumSet.of(Output.IMAGE, Output.WORK_RAM)));
+        }
+        jobs.add(new Job(GAME, null, frames, EnumSet.of(Output.IMAGE, Output.WORK_RAM)));
+        try (BatchRunner runner = new BatchRunner(2)) {
+            assertEquals(0, runner.run(jobs, result -> {
+                assertNull(result.error());
+                if (result.job().inputLog() == null) {
+                    assertNotEquals(expectedImage, result.image());
+                }
+                else {
+                    assertEquals(expectedImage, result.image());
+                    assertArrayEquals(expectedRam, result.workRam());
+                }
+            }).failureCount());
+        }
+    }
+}
@@ -5,6 +5,7 @@ package ch.epfl.gameboj;
 import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
 import static ch.epfl.test.TestRandomizer.newRandom;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -90,6 +91,30 @@ class BusTest {
             assertEquals((i * 2018) & 0xFF, b.read(i));
     }
 
+    @Test
+    void writeOnlyReachesComponentsHandlingAddress() {
+        SimpleComponent[] cs = new SimpleComponent[20];
+        Bus b = new Bus();
+        for (int i = 0; i < cs.length; ++i) {
+            cs[i] = new SimpleComponent(i << 8, i);
+            b.attach(new RangeComponent(cs[i], i << 8));
+        }
+        b.write(0, 42);
+        assertTrue(cs[0].wasWritten());
+        for (int i = 1; i < cs.length; ++i)
+            assertFalse(cs[i].wasWritten());
+    }
+
+    @Test
+    void readIsDecodedInIoPage() {
+        Bus b = new Bus();
+        for (int a = 0xFF00; a <= 0xFFFF; ++a)
+            b.attach(new RangeComponent(new SimpleComponent(a, a & 0xFF), a));
+        for (int a = 0xFF00; a <= 0xFFFF; ++a)
+            assertEquals(a & 0xFF, b.read(a));
+        assertEquals(0xFF, b.read(0xFE00));
+    }
+
     @Test
     void writeFailsForInvalidAddress() {
         Random rng = newRandom();
@@ -145,3 +170,28 @@ class SimpleComponent implements Component {
             value = d;
     }
 }
+
+class RangeComponent implements Component {
+    private final Component component;
+    private final int address;
+
+    public RangeComponent(Component component, int address) {
+        this.component = component;
+        this.address = address;
+    }
+
+    @Override
+    public int read(int a) {
+        return component.read(a);
+    }
+
+    @Override
+    public void write(int a, int d) {
+        component.write(a, d);
+    }
+
+    @Override
+    public boolean handlesAddress(int a) {
+        return a == address;
+    }
+}
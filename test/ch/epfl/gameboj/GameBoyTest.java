@@ -2,10 +2,29 @@
 
 package ch.epfl.gameboj;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ch.epfl.gameboj.TestRoms.newGameBoyWithEmptyRom;
+import static ch.epfl.gameboj.TestRoms.newGameBoyWithGame;
+import static ch.epfl.gameboj.TestRoms.pressScriptedKeys;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.lcd.LcdImage;
+
 class GameBoyTest {
     @Test
     void workRamIsProperlyMapped() {
@@ -38,4 +57,189 @@ class GameBoyTest {
         for (int a = 0xC000; a < 0xDE00; ++a)
             assertEquals(((a + 0x2000) ^ 0xA5) & 0xFF, b.read(a));
     }
+
+    @Test
+    void runFrameRunsOneFrameWhileTheScreenIsOff() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        gb.runFrame();
+        assertEquals(0, gb.bus().read(AddressMap.REGS_LCDC_START));
+        assertEquals(GameBoy.cyclesPerFrame, gb.cycles());
+    }
+
+    @Test
+    void runFrameStopsRightAfterVBlankStarts() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        gb.runFrames(5);
+        long first = gb.cycles();
+        for (int i = 0; i < 10; ++i) {
+            LcdImage image = gb.runFrame();
+            assertSame(gb.lcdController().currentImage(), image);
+            assertEquals(first + (i + 1) * GameBoy.cyclesPerFrame, gb.cycles());
+            assertEquals(144, gb.bus().read(AddressMap.REGS_LCDC_START + 4));
+            assertEquals(1, gb.bus().read(AddressMap.REGS_LCDC_START + 1) & 0b11);
+        }
+    }
+
+    @Test
+    void runFramesRunsTheGivenNumberOfFrames() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        gb.runFrames(5);
+        long first = gb.cycles();
+        LcdImage image = gb.runFrames(5);
+        assertSame(gb.lcdController().currentImage(), image);
+        assertEquals(first + 5 * GameBoy.cyclesPerFrame, gb.cycles());
+        assertThrows(IllegalArgumentException.class, () -> gb.runFrames(-1));
+    }
+
+    @Test
+    void frameSkipKeepsTimingAndOnlyRendersSomeFrames() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        gb.runFrames(5);
+        gb.setFrameSkip(2);
+        long first = gb.cycles();
+        LcdImage image = gb.runFrame();
+        assertSame(image, gb.runFrame());
+        assertSame(image, gb.runFrame());
+        assertNotSame(image, gb.runFrame());
+        assertEquals(first + 4 * GameBoy.cyclesPerFrame, gb.cycles());
+        assertThrows(IllegalArgumentException.class, () -> gb.setFrameSkip(-1));
+    }
+
+    @Test
+    void restoreGoesBackToTheSnapshotState() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        gb.runUntil(100_003);
+        gb.bus().write(AddressMap.WORK_RAM_START, 0x42);
+        ByteBuffer state = gb.snapshot();
+        assertEquals(gb.stateSize(), state.remaining());
+        long cycles = gb.cycles();
+        int[] registers = gb.cpu()._testGetPcSpAFBCDEHL();
+        int div = gb.bus().read(AddressMap.REG_DIV);
+        gb.runFrames(10);
+        gb.bus().write(AddressMap.WORK_RAM_START, 0x24);
+        gb.restore(state);
+        assertEquals(0, state.remaining());
+        assertEquals(cycles, gb.cycles());
+        assertArrayEquals(registers, gb.cpu()._testGetPcSpAFBCDEHL());
+        assertEquals(div, gb.bus().read(AddressMap.REG_DIV));
+        assertEquals(0x42, gb.bus().read(AddressMap.WORK_RAM_START));
+    }
+
+    @Test
+    void restoredGameBoyRunsLikeTheOriginal() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        gb.runFrames(5);
+        ByteBuffer state = ByteBuffer.allocate(gb.stateSize());
+        gb.snapshot(state);
+        GameBoy other = newGameBoyWithEmptyRom();
+        other.restore(state.flip());
+        gb.runFrames(3);
+        other.runFrames(3);
+        assertEquals(gb.cycles(), other.cycles());
+        assertArrayEquals(gb.cpu()._testGetPcSpAFBCDEHL(), other.cpu()._testGetPcSpAFBCDEHL());
+        assertEquals(gb.lcdController().currentImage(), other.lcdController().currentImage());
+    }
+
+    @Test
+    void snapshotAndRestoreFailForInvalidBuffers() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        assertThrows(IllegalArgumentException.class, () -> gb.snapshot(ByteBuffer.allocate(gb.stateSize() - 1)));
+        ByteBuffer garbage = ByteBuffer.allocate(gb.stateSize());
+        assertThrows(IllegalArgumentException.class, () -> gb.restore(garbage));
+        assertEquals(0, garbage.position());
+        ByteBuffer truncated = gb.snapshot();
+        truncated.limit(truncated.limit() - 1);
+        assertThrows(IllegalArgumentException.class, () -> gb.restore(truncated));
+    }
+
+    @Test
+    void stateHashDoesNotDependOnHowTheSimulationIsSplit() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        GameBoy other = newGameBoyWithEmptyRom();
+        gb.runFrames(10);
+        while (other.cycles() < gb.cycles()) {
+            other.runUntil(Math.min(gb.cycles(), other.cycles() + 997));
+        }
+        assertEquals(gb.stateHash(), other.stateHash());
+        other.joypad().keyPressed(Joypad.Key.A);
+        assertNotEquals(gb.stateHash(), other.stateHash());
+    }
+
+    @Test
+    void mappedCartridgeRunsLikeALoadedOne() throws IOException {
+        byte[] data = new byte[0x8000];
+        new Random(2018).nextBytes(data);
+        data[0x147] = 0;
+        File rom = File.createTempFile("random", ".gb");
+        rom.deleteOnExit();
+        Files.write(rom.toPath(), data);
+        GameBoy loaded = new GameBoy(Cartridge.ofFile(rom));
+        GameBoy mapped = new GameBoy(Cartridge.ofFile(rom, true));
+        for (int i = 0; i < 20; ++i) {
+            loaded.runFrame();
+            mapped.runFrame();
+            assertEquals(loaded.stateHash(), mapped.stateHash());
+        }
+        assertThrows(IOException.class, () -> Cartridge.ofFile(new File(rom.getPath() + ".missing"), true));
+    }
+
+    @Test
+    void forkRunsLikeARestoredCopy() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        gb.runUntil(100_003);
+        gb.bus().write(AddressMap.WORK_RAM_START, 0x42);
+        GameBoy restored = newGameBoyWithEmptyRom();
+        restored.restore(gb.snapshot());
+        GameBoy fork = gb.fork();
+        assertEquals(gb.cycles(), fork.cycles());
+        assertEquals(gb.stateHash(), fork.stateHash());
+        fork.runFrames(5);
+        restored.runFrames(5);
+        assertEquals(restored.stateHash(), fork.stateHash());
+    }
+
+    @Test
+    void forkAndParentAreIndependent() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        gb.bus().write(AddressMap.WORK_RAM_START, 0x42);
+        gb.bus().write(AddressMap.VIDEO_RAM_START, 0x43);
+        GameBoy fork = gb.fork();
+        GameBoy grandchild = fork.fork();
+        fork.bus().write(AddressMap.WORK_RAM_START, 0x24);
+        gb.bus().write(AddressMap.VIDEO_RAM_START, 0x34);
+        assertEquals(0x42, gb.bus().read(AddressMap.WORK_RAM_START));
+        assertEquals(0x24, fork.bus().read(AddressMap.WORK_RAM_START));
+        assertEquals(0x42, grandchild.bus().read(AddressMap.WORK_RAM_START));
+        assertEquals(0x43, fork.bus().read(AddressMap.VIDEO_RAM_START));
+        assertEquals(0x43, grandchild.bus().read(AddressMap.VIDEO_RAM_START));
+        assertEquals(0x34, gb.bus().read(AddressMap.VIDEO_RAM_START));
+        fork.joypad().keyPressed(Joypad.Key.A);
+        fork.runFrames(2);
+        assertEquals(gb.cycles(), grandchild.cycles());
+        assertNotEquals(gb.cycles(), fork.cycles());
+    }
+
+    @Test
+    void pixelBufferGivesTheSameFramesAsTheImageBuilder() throws IOException {
+        GameBoy built = newGameBoyWithGame();
+        GameBoy pixels = newGameBoyWithGame();
+        pixels.setPixelBufferEnabled(true);
+        built.setPixelBufferEnabled(false);
+        LcdImage first = null;
+        boolean changed = false;
+        for (int f = 0; f < 400; ++f) {
+            pressScriptedKeys(built.joypad(), f, 0);
+            pressScriptedKeys(pixels.joypad(), f, 0);
+            LcdImage expected = built.runFrame();
+            LcdImage actual = pixels.runFrame();
+            assertEquals(expected, actual);
+            assertEquals(expected.hashCode(), actual.hashCode());
+            if (first == null) {
+                first = expected;
+            }
+            changed |= !expected.equals(first);
+        }
+        assertEquals(built.stateHash(), pixels.stateHash());
+        assertTrue(changed);
+    }
 }
@@ -0,0 +1,117 @@
+package ch.epfl.gameboj;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ch.epfl.gameboj.TestRoms.SCRIPT_START_FRAME;
+import static ch.epfl.gameboj.TestRoms.newGameBoyWithEmptyRom;
+import static ch.epfl.gameboj.TestRoms.newGameBoyWithGame;
+import static ch.epfl.gameboj.TestRoms.pressScriptedKeys;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.component.Joypad.Key;
+
+class InputLogTest {
+    private static InputLog record(GameBoy gb, int pressFrame) {
+        InputLog.Recorder recorder = new InputLog.Recorder(gb, true);
+        for (int f = 0; f < 20; ++f) {
+            if (f == pressFrame) {
+                gb.runUntil(gb.cycles() + 1_234);
+                gb.joypad().keyPressed(Key.START);
+            }
+            if (f == pressFrame + 3) {
+                gb.joypad().keyReleased(Key.START);
+            }
+            recorder.runFrame();
+        }
+        return recorder.log();
+    }
+
+    private static InputLog recordGame(GameBoy gb, int frames, int shift) {
+        InputLog.Recorder recorder = new InputLog.Recorder(gb, true);
+        for (int f = 0; f < frames; ++f) {
+            pressScriptedKeys(gb.joypad(), f, shift);
+            recorder.runFrame();
+        }
+        return recorder.log();
+    }
+
+    @Test
+    void recorderLogsKeyEventsWithTheirCycle() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        gb.runFrames(2);
+        long start = gb.cycles();
+        InputLog log = record(gb, 5);
+        assertEquals(20, log.frameCount());
+        assertEquals(2, log.eventCount());
+        assertEquals(Key.START, log.eventKey(0));
+        assertTrue(log.eventPressed(0));
+        assertFalse(log.eventPressed(1));
+        assertTrue(log.eventCycle(0) > start + 4 * GameBoy.cyclesPerFrame);
+        assertTrue(log.eventCycle(0) < log.eventCycle(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> log.eventKey(2));
+    }
+
+    @Test
+    void replayReproducesTheRecordedSession() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        gb.runFrames(2);
+        InputLog log = record(gb, 5);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.writeTo(out);
+        InputLog read = InputLog.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(-1, log.firstDivergentFrame(read));
+
+        GameBoy other = newGameBoyWithEmptyRom();
+        InputLog.Replayer replayer = new InputLog.Replayer(other, read, true);
+        assertFalse(replayer.isFinished());
+        assertEquals(-1, replayer.runToEnd());
+        assertTrue(replayer.isFinished());
+        assertEquals(20, replayer.frameCount());
+        assertEquals(gb.cycles(), other.cycles());
+        assertEquals(gb.stateHash(), other.stateHash());
+    }
+
+    @Test
+    void firstDivergentFrameIsTheFrameOfTheFirstDifferentInput() throws IOException {
+        InputLog reference = record(newGameBoyWithEmptyRom(), 8);
+        InputLog different = record(newGameBoyWithEmptyRom(), 11);
+        assertEquals(8, reference.firstDivergentFrame(different));
+    }
+
+    @Test
+    void readFromFailsForInvalidStream() {
+        assertThrows(IllegalArgumentException.class,
+                () -> InputLog.readFrom(new ByteArrayInputStream(new byte[16])));
+        assertThrows(IOException.class,
+                () -> InputLog.readFrom(new ByteArrayInputStream(new byte[2])));
+    }
+
+    @Test
+    void replayOfAGameMatchesEveryRecordedFrameHash() throws IOException {
+        GameBoy gb = newGameBoyWithGame();
+        InputLog log = recordGame(gb, 300, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.writeTo(out);
+        InputLog read = InputLog.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+        GameBoy other = newGameBoyWithGame();
+        InputLog.Replayer replayer = new InputLog.Replayer(other, read, true);
+        assertEquals(-1, replayer.runToEnd());
+        assertEquals(gb.stateHash(), other.stateHash());
+        assertEquals(gb.lcdController().currentImage(), other.lcdController().currentImage());
+
+        GameBoy shifted = newGameBoyWithGame();
+        InputLog shiftedLog = recordGame(shifted, 300, 7);
+        assertEquals(SCRIPT_START_FRAME, log.firstDivergentFrame(shiftedLog));
+        assertNotEquals(gb.stateHash(), shifted.stateHash());
+        assertNotEquals(gb.lcdController().currentImage(), shifted.lcdController().currentImage());
+    }
+}
@@ -0,0 +1,110 @@
+package ch.epfl.gameboj;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ch.epfl.gameboj.TestRoms.newGameBoyWithEmptyRom;
+import static ch.epfl.gameboj.TestRoms.newGameBoyWithGame;
+import static ch.epfl.gameboj.TestRoms.pressScriptedKeys;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.component.lcd.LcdImage;
+
+class RewindBufferTest {
+    @Test
+    void constructorFailsForInvalidArguments() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        assertThrows(NullPointerException.class, () -> new RewindBuffer(null, 1));
+        assertThrows(IllegalArgumentException.class, () -> new RewindBuffer(gb, 0));
+        assertThrows(IllegalArgumentException.class, () -> RewindBuffer.ofSeconds(gb, 0));
+    }
+
+    @Test
+    void stepBackFailsWithLessThanTwoStates() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        RewindBuffer rewind = new RewindBuffer(gb, 10);
+        assertFalse(rewind.stepBack());
+        gb.runFrame();
+        rewind.capture();
+        assertFalse(rewind.stepBack());
+        assertEquals(1, rewind.size());
+    }
+
+    @Test
+    void stepBackRestoresPreviousStatesInReverseOrder() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        RewindBuffer rewind = new RewindBuffer(gb, 100);
+        List<Long> cycles = new ArrayList<>();
+        List<int[]> registers = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            gb.runFrame();
+            gb.bus().write(AddressMap.WORK_RAM_START + i, i);
+            rewind.capture();
+            cycles.add(gb.cycles());
+            registers.add(gb.cpu()._testGetPcSpAFBCDEHL());
+        }
+        for (int i = 48; i >= 0; --i) {
+            assertTrue(rewind.stepBack());
+            assertEquals((long) cycles.get(i), gb.cycles());
+            assertArrayEquals(registers.get(i), gb.cpu()._testGetPcSpAFBCDEHL());
+            assertEquals(i, gb.bus().read(AddressMap.WORK_RAM_START + i));
+            assertEquals(0, gb.bus().read(AddressMap.WORK_RAM_START + i + 1));
+        }
+        assertFalse(rewind.stepBack());
+    }
+
+    @Test
+    void oldestStatesAreForgottenWhenFull() throws IOException {
+        GameBoy gb = newGameBoyWithEmptyRom();
+        RewindBuffer rewind = new RewindBuffer(gb, 5);
+        List<Long> cycles = new ArrayList<>();
+        for (int i = 0; i < 12; ++i) {
+            gb.runFrame();
+            rewind.capture();
+            cycles.add(gb.cycles());
+        }
+        assertEquals(5, rewind.size());
+        int steps = 0;
+        while (rewind.stepBack()) {
+            ++steps;
+            assertEquals((long) cycles.get(11 - steps), gb.cycles());
+        }
+        assertEquals(4, steps);
+        assertTrue(rewind.memoryUsage() > 0);
+        assertTrue(rewind.averageCaptureNanos() > 0);
+    }
+
+    @Test
+    void rewoundGameRunsTheSameFramesAgain() throws IOException {
+        int frames = 240;
+        int steps = 100;
+        GameBoy gb = newGameBoyWithGame();
+        RewindBuffer rewind = new RewindBuffer(gb, steps + 1);
+        long[] hashes = new long[frames];
+        for (int f = 0; f < frames; ++f) {
+            pressScriptedKeys(gb.joypad(), f, 0);
+            gb.runFrame();
+            rewind.capture();
+            hashes[f] = gb.stateHash();
+        }
+        LcdImage lastImage = gb.lcdController().currentImage();
+        for (int f = frames - 2; f >= frames - 1 - steps; --f) {
+            assertTrue(rewind.stepBack());
+            assertEquals(hashes[f], gb.stateHash());
+        }
+        assertFalse(rewind.stepBack());
+        for (int f = frames - steps; f < frames; ++f) {
+            pressScriptedKeys(gb.joypad(), f, 0);
+            gb.runFrame();
+            assertEquals(hashes[f], gb.stateHash());
+        }
+        assertEquals(lastImage, gb.lcdController().currentImage());
+    }
+}
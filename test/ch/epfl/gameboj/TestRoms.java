@@ -0,0 +1,51 @@
+package ch.epfl.gameboj;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.Joypad.Key;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+
+public interface TestRoms {
+    // Bundled game, in the project root, that reacts to the scripted key presses within a few hundred frames.
+    public final static File GAME = new File("flappyboy.gb");
+
+    public final static int SCRIPT_START_FRAME = 60;
+    public final static int SCRIPT_PERIOD = 20;
+
+    // A 32 KiB ROM filled with zeros: the Game Boy only executes NOPs once the boot ROM is done.
+    public static File emptyRom() throws IOException {
+        File rom = File.createTempFile("empty", ".gb");
+        rom.deleteOnExit();
+        Files.write(rom.toPath(), new byte[0x8000]);
+        return rom;
+    }
+
+    public static GameBoy newGameBoyWithEmptyRom() throws IOException {
+        return new GameBoy(Cartridge.ofFile(emptyRom()));
+    }
+
+    public static GameBoy newGameBoyWithGame() throws IOException {
+        return new GameBoy(Cartridge.ofFile(GAME));
+    }
+
+    // Presses and releases keys before the given frame: START once, then A every SCRIPT_PERIOD frames,
+    // everything shifted by the given number of frames.
+    public static void pressScriptedKeys(Joypad joypad, int frame, int shift) {
+        int f = frame - shift - SCRIPT_START_FRAME;
+        if (f == 0) {
+            joypad.keyPressed(Key.START);
+        }
+        if (f == 6) {
+            joypad.keyReleased(Key.START);
+        }
+        if (f >= SCRIPT_PERIOD && f % SCRIPT_PERIOD == 0) {
+            joypad.keyPressed(Key.A);
+        }
+        if (f >= SCRIPT_PERIOD && f % SCRIPT_PERIOD == 4) {
+            joypad.keyReleased(Key.A);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ch.epfl.gameboj.component;
+
+import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
+import static ch.epfl.test.TestRandomizer.newRandom;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.component.cpu.Cpu;
+
+class TimerTest implements ComponentTest {
+    @Override
+    public Component newComponent() {
+        return new Timer(new Cpu());
+    }
+
+    @Test
+    void constructorFailsForNullCpu() {
+        assertThrows(NullPointerException.class, () -> new Timer(null));
+    }
+
+    @Test
+    void overflowRequestsInterruptWithoutAnyRead() {
+        Cpu cpu = new Cpu();
+        Timer t = new Timer(cpu);
+        t.write(AddressMap.REG_TMA, 0x42);
+        t.write(AddressMap.REG_TIMA, 0xFE);
+        t.write(AddressMap.REG_TAC, 0b101);
+        long overflow = t.nextEventCycle(0);
+        for (long c = 0; c < overflow; ++c) {
+            t.cycle(c);
+            assertEquals(0, cpu.read(AddressMap.REG_IF) & (1 << Cpu.Interrupt.TIMER.index()));
+        }
+        t.cycle(overflow);
+        assertEquals(1 << Cpu.Interrupt.TIMER.index(), cpu.read(AddressMap.REG_IF) & (1 << Cpu.Interrupt.TIMER.index()));
+        assertEquals(0x42, t.read(AddressMap.REG_TIMA));
+    }
+
+    @Test
+    void longCatchUpWrapsTimaOntoTma() {
+        Random rng = newRandom();
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            Cpu eagerCpu = new Cpu(), lazyCpu = new Cpu();
+            Timer eager = new Timer(eagerCpu);
+            Timer lazy = new Timer(lazyCpu);
+            int tma = rng.nextInt(256), tima = rng.nextInt(256), tac = 0b100 | rng.nextInt(4);
+            for (Timer t : new Timer[] { eager, lazy }) {
+                t.write(AddressMap.REG_TMA, tma);
+                t.write(AddressMap.REG_TIMA, tima);
+                t.write(AddressMap.REG_TAC, tac);
+            }
+            long cycles = rng.nextInt(100_000);
+            for (long c = 0; c <= cycles; ++c) {
+                eager.cycle(c);
+                eager.read(AddressMap.REG_TIMA);
+            }
+            lazy.cycle(cycles);
+            assertEquals(eager.read(AddressMap.REG_TIMA), lazy.read(AddressMap.REG_TIMA));
+            assertEquals(eagerCpu.read(AddressMap.REG_IF), lazyCpu.read(AddressMap.REG_IF));
+        }
+    }
+
+    @Test
+    void lazyTimerMatchesTimerReadOnEveryCycle() {
+        Random rng = newRandom();
+        Timer eager = new Timer(new Cpu());
+        Timer lazy = new Timer(new Cpu());
+        int[] registers = { AddressMap.REG_DIV, AddressMap.REG_TIMA, AddressMap.REG_TMA, AddressMap.REG_TAC };
+        for (long c = 0; c < RANDOM_ITERATIONS * 100; ++c) {
+            eager.cycle(c);
+            lazy.cycle(c);
+            for (int r : registers) {
+                eager.read(r);
+            }
+            if (rng.nextInt(50) == 0) {
+                int r = registers[rng.nextInt(registers.length)];
+                int v = (r == AddressMap.REG_TAC) ? rng.nextInt(8) : rng.nextInt(256);
+                eager.write(r, v);
+                lazy.write(r, v);
+            }
+            if (rng.nextInt(20) == 0) {
+                for (int r : registers) {
+                    assertEquals(eager.read(r), lazy.read(r));
+                }
+            }
+        }
+    }
+}
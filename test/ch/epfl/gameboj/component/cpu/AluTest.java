@@ -448,4 +448,29 @@ class AluTest {
             });
         }
     }
+
+    @Test
+    void tablesProduceSameResultsAsAlu() {
+        for (int l = 0; l <= 0xFF; ++l) {
+            for (int r = 0; r <= 0xFF; ++r) {
+                for (boolean c: new boolean[] { false, true }) {
+                    assertEquals(Alu.add(l, r, c), Short.toUnsignedInt(AluTables.Tables.ADD[AluTables.binaryIndex(l, r, c)]));
+                    assertEquals(Alu.sub(l, r, c), Short.toUnsignedInt(AluTables.Tables.SUB[AluTables.binaryIndex(l, r, c)]));
+                }
+            }
+            for (Alu.RotDir d: Alu.RotDir.values()) {
+                assertEquals(Alu.rotate(d, l), Short.toUnsignedInt(AluTables.Tables.ROTATE[AluTables.rotateIndex(d, l)]));
+                for (boolean c: new boolean[] { false, true })
+                    assertEquals(Alu.rotate(d, l, c), Short.toUnsignedInt(AluTables.Tables.ROTATE_CARRY[AluTables.rotateIndex(d, l, c)]));
+            }
+            assertEquals(Alu.shiftLeft(l), Short.toUnsignedInt(AluTables.Tables.SHIFT_LEFT[l]));
+            assertEquals(Alu.shiftRightA(l), Short.toUnsignedInt(AluTables.Tables.SHIFT_RIGHT_A[l]));
+            assertEquals(Alu.shiftRightL(l), Short.toUnsignedInt(AluTables.Tables.SHIFT_RIGHT_L[l]));
+            assertEquals(Alu.swap(l), Short.toUnsignedInt(AluTables.Tables.SWAP[l]));
+            for (int nhc = 0; nhc < 8; ++nhc) {
+                boolean n = (nhc & 4) != 0, h = (nhc & 2) != 0, c = (nhc & 1) != 0;
+                assertEquals(Alu.bcdAdjust(l, n, h, c), Short.toUnsignedInt(AluTables.Tables.BCD_ADJUST[AluTables.bcdAdjustIndex(l, n, h, c)]));
+            }
+        }
+    }
 }
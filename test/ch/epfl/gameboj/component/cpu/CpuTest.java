@@ -580,6 +580,49 @@ class CpuTest {
         }
     }
 
+    @Test
+    void incKeepsCarryOfPreviousOperation() throws IOException {
+        Opcode[] os = new Opcode[] { LD_SP_N16, LD_A_N8, ADD_A_N8, INC_B, PUSH_AF, POP_BC };
+        try (ByteArrayOutputStream s = new ByteArrayOutputStream()) {
+            emitN16(s, LD_SP_N16, 0xC010);
+            emitN8(s, LD_A_N8, 0xFF);
+            emitN8(s, ADD_A_N8, 0x01);
+            emit(s, INC_B);
+            emit(s, PUSH_AF);
+            emit(s, POP_BC);
+            Component ram = ramAt(0xC000, new byte[0x20]);
+            int[] e = cpuState(totalBytes(os), 0xC010, 0, 0x10, 0, 0x10, 0, 0, 0, 0);
+            assertCpuStateEquals(e, stateAfter(s, totalCycles(os), ram));
+        }
+    }
+
+    @Test
+    void skippedIdleLoopsBehaveLikeInterpretedOnes() throws IOException {
+        Opcode[] os = new Opcode[] { LD_A_N8R, CP_A_N8, JR_NZ_E8 };
+        int cycles = 100_003;
+        try (ByteArrayOutputStream s = new ByteArrayOutputStream()) {
+            emitN8(s, LD_A_N8R, 0x44);
+            emitN8(s, CP_A_N8, 0x90);
+            emitN8(s, JR_NZ_E8, -totalBytes(os) & 0xFF);
+            byte[] program = s.toByteArray();
+            Cpu interpreted = new Cpu();
+            Cpu skipping = new Cpu();
+            Bus b1 = new Bus(), b2 = new Bus();
+            for (Bus b: new Bus[] { b1, b2 }) {
+                new ProgRom(program).attachTo(b);
+                ramAt(0xFF44, new byte[] { 0x10 }).attachTo(b);
+            }
+            interpreted.attachTo(b1);
+            skipping.attachTo(b2);
+            for (int i = 0; i < cycles; ++i) {
+                interpreted.cycle(i);
+                skipping.cycle(i, cycles);
+            }
+            assertCpuStateEquals(interpreted._testGetPcSpAFBCDEHL(), skipping._testGetPcSpAFBCDEHL());
+            assertEquals(interpreted.nextEventCycle(cycles), skipping.nextEventCycle(cycles));
+        }
+    }
+
     private static int combine(int h, int l) {
         return (h << 8) | l;
     }
@@ -0,0 +1,206 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.test.TestRandomizer.newRandom;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.ComponentTest;
+import ch.epfl.gameboj.component.cpu.Cpu;
+import ch.epfl.gameboj.component.memory.Ram;
+import ch.epfl.gameboj.component.memory.RamController;
+
+class LcdControllerTest implements ComponentTest {
+    private static final int CYCLES_IN_FRAME = 17556;
+    private static final int LCD_WIDTH = 160;
+    private static final int LCD_HEIGHT = 144;
+    private static final int FRAMES = 20;
+    private static final int REG_LCDC = AddressMap.REGS_LCDC_START;
+    private static final int REG_DMA = REG_LCDC + 6;
+    private static final int REG_BGP = REG_LCDC + 7;
+    private static final int REG_OBP0 = REG_LCDC + 8;
+    private static final int REG_OBP1 = REG_LCDC + 9;
+    private static final int REG_WY = REG_LCDC + 10;
+    private static final int REG_WX = REG_LCDC + 11;
+    private static final int TILE_DATA_START = AddressMap.TILE_SOURCE[1];
+    private static final int BG_MAP_START = AddressMap.BG_DISPLAY_DATA[0];
+    private static final int BG_MAP_END = AddressMap.BG_DISPLAY_DATA[1];
+    private static final int BYTES_IN_TILE = 16;
+    private static final int BYTES_IN_SPRITE = 4;
+    private static final int CYCLES_IN_LINE = 114;
+    private static final int VBLANK_START = LCD_HEIGHT * CYCLES_IN_LINE;
+    private static final int VBLANK_LENGTH = 10 * CYCLES_IN_LINE;
+    private static final int LOCKED_OAM_DATA = 0xFF;
+
+    @Override
+    public Component newComponent() {
+        return new LcdController(new Cpu());
+    }
+
+    @Test
+    void tileCacheGivesTheSameImagesAsRereadingTiles() {
+        Random rng = newRandom();
+        for (boolean pixels : new boolean[] { false, true }) {
+            LcdController cached = new LcdController(new Cpu());
+            LcdController reread = new LcdController(new Cpu());
+            reread.setTileCacheEnabled(false);
+            LcdController[] lcds = { cached, reread };
+            for (LcdController lcd : lcds) {
+                lcd.setPixelBufferEnabled(pixels);
+            }
+            fillVideoRam(lcds, rng, 4);
+            writeAll(lcds, REG_WY, 72);
+            writeAll(lcds, REG_WX, 87);
+            /* Écran, fenêtre et arrière-plan allumés, tuiles à partir de 8000 */
+            writeAll(lcds, REG_LCDC, 0b1011_0001);
+            for (int f = 0; f < FRAMES; ++f) {
+                long start = (long) f * CYCLES_IN_FRAME;
+                long[] writes = writeCycles(rng, start, 200);
+                int w = 0;
+                for (long c = start; c < start + CYCLES_IN_FRAME; ++c) {
+                    for (LcdController lcd : lcds) {
+                        lcd.cycle(c);
+                    }
+                    for (; w < writes.length && writes[w] == c; ++w) {
+                        writeAll(lcds, TILE_DATA_START + rng.nextInt(4 * BYTES_IN_TILE), rng.nextInt(0x100));
+                    }
+                }
+                assertEquals(reread.currentImage(), cached.currentImage());
+            }
+            assertTrue(cached.tileCacheHitRate() > 0);
+            assertEquals(0, reread.tileCacheHitRate());
+        }
+    }
+
+    @Test
+    void spriteIndexGivesTheSameImagesAsScanningOam() {
+        Random rng = newRandom();
+        for (boolean pixels : new boolean[] { false, true }) {
+            LcdController indexed = new LcdController(new Cpu());
+            LcdController scanned = new LcdController(new Cpu());
+            scanned.setSpriteIndexEnabled(false);
+            LcdController[] lcds = { indexed, scanned };
+            for (LcdController lcd : lcds) {
+                lcd.setPixelBufferEnabled(pixels);
+            }
+            fillVideoRam(lcds, rng, 0x100);
+            for (int a = AddressMap.OAM_START; a < AddressMap.OAM_END; ++a) {
+                writeAll(lcds, a, randomSpriteByte(rng, a));
+            }
+            /* Écran, sprites et arrière-plan allumés, tuiles à partir de 8000 */
+            writeAll(lcds, REG_LCDC, 0b1001_0011);
+            for (int f = 0; f < FRAMES; ++f) {
+                long start = (long) f * CYCLES_IN_FRAME;
+                long[] writes = writeCycles(rng, start, 200);
+                int w = 0;
+                for (long c = start; c < start + CYCLES_IN_FRAME; ++c) {
+                    for (LcdController lcd : lcds) {
+                        lcd.cycle(c);
+                    }
+                    for (; w < writes.length && writes[w] == c; ++w) {
+                        if (rng.nextInt(20) == 0) {
+                            /* Passe des sprites de 8x8 à 8x16 ou inversement */
+                            writeAll(lcds, REG_LCDC, indexed.read(REG_LCDC) ^ 0b100);
+                        } else {
+                            int a = AddressMap.OAM_START + rng.nextInt(AddressMap.OAM_RAM_SIZE);
+                            writeAll(lcds, a, randomSpriteByte(rng, a));
+                        }
+                    }
+                }
+                assertEquals(scanned.currentImage(), indexed.currentImage());
+            }
+        }
+    }
+
+    @Test
+    void dmaCopiesOamAtOnceButKeepsItLockedForItsLength() {
+        Random rng = newRandom();
+        Ram workRam = new Ram(AddressMap.WORK_RAM_SIZE);
+        Bus bus = new Bus();
+        bus.attach(new RamController(workRam, AddressMap.WORK_RAM_START));
+        LcdController dma = new LcdController(new Cpu());
+        LcdController byteWise = new LcdController(new Cpu());
+        dma.attachTo(bus);
+        LcdController[] lcds = { dma, byteWise };
+        fillVideoRam(lcds, rng, 0x100);
+        writeAll(lcds, REG_LCDC, 0b1001_0011);
+        for (int f = 0; f < FRAMES; ++f) {
+            long start = (long) f * CYCLES_IN_FRAME;
+            int page = rng.nextInt(AddressMap.WORK_RAM_SIZE >> 8);
+            int[] source = new int[AddressMap.OAM_RAM_SIZE];
+            for (int i = 0; i < source.length; ++i) {
+                source[i] = randomSpriteByte(rng, AddressMap.OAM_START + i);
+                workRam.write((page << 8) + i, source[i]);
+            }
+            /* La copie a lieu pendant VBLANK, pour que les images ne dépendent pas de sa durée */
+            long write = start + VBLANK_START + rng.nextInt(VBLANK_LENGTH - AddressMap.OAM_RAM_SIZE - 1);
+            long end = write + 1 + AddressMap.OAM_RAM_SIZE;
+            for (long c = start; c < start + CYCLES_IN_FRAME; ++c) {
+                for (LcdController lcd : lcds) {
+                    lcd.cycle(c);
+                }
+                if (c == write) {
+                    for (int a = AddressMap.OAM_START; a < AddressMap.OAM_END; ++a) {
+                        assertEquals(byteWise.read(a), dma.read(a));
+                    }
+                    dma.write(REG_DMA, (AddressMap.WORK_RAM_START >> 8) + page);
+                } else if (write < c && c < end) {
+                    /* Copie octet par octet, comme sur le Game Boy, d'un octet par cycle */
+                    int i = (int) (c - write - 1);
+                    byteWise.write(AddressMap.OAM_START + i, source[i]);
+                    int a = AddressMap.OAM_START + rng.nextInt(AddressMap.OAM_RAM_SIZE);
+                    assertEquals(LOCKED_OAM_DATA, dma.read(a));
+                    dma.write(a, rng.nextInt(0x100));
+                } else if (c == end) {
+                    for (int i = 0; i < source.length; ++i) {
+                        assertEquals(source[i], dma.read(AddressMap.OAM_START + i));
+                        assertEquals(source[i], byteWise.read(AddressMap.OAM_START + i));
+                    }
+                }
+            }
+            assertEquals(byteWise.currentImage(), dma.currentImage());
+        }
+    }
+
+    /* Tire un octet de l'OAM, les positions étant tirées de sorte que les sprites soient souvent visibles */
+    private static int randomSpriteByte(Random rng, int address) {
+        switch ((address - AddressMap.OAM_START) % BYTES_IN_SPRITE) {
+        case 0:
+            return rng.nextInt(LCD_HEIGHT + 32);
+        case 1:
+            return rng.nextInt(LCD_WIDTH + 8);
+        default:
+            return rng.nextInt(0x100);
+        }
+    }
+
+    /* Remplit les tuiles de valeurs aléatoires et la carte de l'arrière-plan d'index de tuiles inférieurs à tiles */
+    private static void fillVideoRam(LcdController[] lcds, Random rng, int tiles) {
+        for (int a = TILE_DATA_START; a < BG_MAP_START; ++a) {
+            writeAll(lcds, a, rng.nextInt(0x100));
+        }
+        for (int a = BG_MAP_START; a < BG_MAP_END; ++a) {
+            writeAll(lcds, a, rng.nextInt(tiles));
+        }
+        writeAll(lcds, REG_BGP, 0b1110_0100);
+        writeAll(lcds, REG_OBP0, 0b1101_0010);
+        writeAll(lcds, REG_OBP1, 0b0001_1011);
+    }
+
+    /* Tire count cycles de l'image commençant au cycle start, triés, auxquels écrire */
+    private static long[] writeCycles(Random rng, long start, int count) {
+        return rng.longs(count, start, start + CYCLES_IN_FRAME).sorted().toArray();
+    }
+
+    private static void writeAll(LcdController[] lcds, int address, int data) {
+        for (LcdController lcd : lcds) {
+            lcd.write(address, data);
+        }
+    }
+}
@@ -615,4 +615,49 @@ public class LcdImageTest {
         assertThrows(IndexOutOfBoundsException.class, () -> {i4.get(1, 67);});
         assertThrows(IndexOutOfBoundsException.class, () -> {i5.get(67, 1);});
     }
+    
+    // TESTS IMAGE REPRESENTEE PAR SES PIXELS
+    @org.junit.jupiter.api.Test
+    public void pixelImageGetAndEquals() {
+        byte[] pixels = new byte[4 * 3];
+        for (int i = 0 ; i < pixels.length ; ++i) {
+            pixels[i] = (byte) (i % 4);
+        }
+        LcdImage i0 = new LcdImage(4, 3, pixels);
+        for (int y = 0 ; y < 3 ; ++y) {
+            for (int x = 0 ; x < 4 ; ++x) {
+                assertEquals(x, i0.get(x, y));
+            }
+        }
+        LcdImage i1 = new LcdImage(4, 3, pixels.clone());
+        assertTrue(i0.equals(i1));
+        assertEquals(i0.hashCode(), i1.hashCode());
+        assertFalse(i0.equals(new LcdImage(4, 3, new byte[4 * 3])));
+        assertThrows(IllegalArgumentException.class, () -> {new LcdImage(4, 2, new byte[4 * 3]);});
+    }
+    
+    @org.junit.jupiter.api.Test
+    public void pixelImageEqualsLineImageWithSamePixels() {
+        List<LcdImageLine> lines = new ArrayList<>();
+        lines.add(new LcdImageLine(v3, v4, v0));
+        lines.add(new LcdImageLine(v4, v3, v1));
+        LcdImage i0 = new LcdImage(32, 2, lines);
+        byte[] pixels = new byte[32 * 2];
+        for (int y = 0 ; y < 2 ; ++y) {
+            for (int x = 0 ; x < 32 ; ++x) {
+                pixels[y * 32 + x] = (byte) i0.get(x, y);
+            }
+        }
+        LcdImage i1 = new LcdImage(32, 2, pixels);
+        assertTrue(i0.equals(i1));
+        assertTrue(i1.equals(i0));
+        assertEquals(i0.hashCode(), i1.hashCode());
+        List<LcdImageLine> otherOpacity = new ArrayList<>();
+        otherOpacity.add(new LcdImageLine(v3, v4, v1));
+        otherOpacity.add(new LcdImageLine(v4, v3, v0));
+        assertTrue(i0.equals(new LcdImage(32, 2, otherOpacity)));
+        pixels[5] ^= 1;
+        assertFalse(i0.equals(i1));
+        assertFalse(i1.equals(i0));
+    }
 }
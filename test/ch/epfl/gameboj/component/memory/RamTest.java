@@ -5,6 +5,7 @@ package ch.epfl.gameboj.component.memory;
 import static org.junit.jupiter.api.Assertions.*;
 import static ch.epfl.test.TestRandomizer.*;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 import org.junit.jupiter.api.Test;
@@ -87,4 +88,122 @@ class RamTest {
                     () -> ram.write(0, k));
         }
     }
+
+    @Test
+    void loadStateRestoresSavedState() {
+        Random rng = newRandom();
+        int size = 1_000;
+        Ram r = new Ram(size);
+        for (int a = 0; a < size; ++a)
+            r.write(a, rng.nextInt(0x100));
+        ByteBuffer buffer = ByteBuffer.allocate(r.stateSize());
+        r.saveState(buffer);
+        assertEquals(size, buffer.position());
+        Ram copy = new Ram(size);
+        copy.loadState(buffer.flip());
+        for (int a = 0; a < size; ++a)
+            assertEquals(r.read(a), copy.read(a));
+    }
+
+    @Test
+    void allPagesAreDirtyWithoutTracking() {
+        Ram r = new Ram(1_000);
+        assertFalse(r.isDirtyTrackingEnabled());
+        assertEquals(4, r.pageCount());
+        r.clearDirtyPages();
+        for (int p = 0; p < r.pageCount(); ++p) {
+            assertTrue(r.isPageDirty(p));
+            assertEquals(p, r.nextDirtyPage(p));
+        }
+        assertEquals(-1, r.nextDirtyPage(r.pageCount()));
+        assertThrows(IndexOutOfBoundsException.class, () -> r.isPageDirty(r.pageCount()));
+    }
+
+    @Test
+    void dirtyTrackingFollowsWrites() {
+        Random rng = newRandom();
+        int size = 0x8000;
+        Ram r = new Ram(size);
+        r.setDirtyTrackingEnabled(true);
+        assertEquals(0, r.nextDirtyPage(0));
+        assertTrue(r.isPageDirty(r.pageCount() - 1));
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            r.clearDirtyPages();
+            assertEquals(-1, r.nextDirtyPage(0));
+            boolean[] written = new boolean[r.pageCount()];
+            for (int j = rng.nextInt(4); j >= 0; --j) {
+                int a = rng.nextInt(size);
+                r.write(a, rng.nextInt(0x100));
+                written[a / Ram.PAGE_SIZE] = true;
+            }
+            int expected = -1;
+            for (int p = written.length - 1; p >= 0; --p) {
+                assertEquals(written[p], r.isPageDirty(p));
+                if (written[p])
+                    expected = p;
+                assertEquals(expected, r.nextDirtyPage(p));
+            }
+        }
+    }
+
+    @Test
+    void loadStateMarksAllPagesDirty() {
+        Ram r = new Ram(300);
+        r.setDirtyTrackingEnabled(true);
+        r.clearDirtyPages();
+        ByteBuffer buffer = ByteBuffer.allocate(r.stateSize());
+        r.saveState(buffer);
+        assertEquals(-1, r.nextDirtyPage(0));
+        r.loadState(buffer.flip());
+        assertTrue(r.isPageDirty(0));
+        assertTrue(r.isPageDirty(1));
+    }
+
+    @Test
+    void sharedRamsCopyPagesOnlyWhenWritten() {
+        Ram r = new Ram(1_000);
+        assertEquals(r.pageCount(), r.sharedPageCount());
+        for (int a = 0; a < 1_000; ++a)
+            r.write(a, a & 0xFF);
+        assertEquals(0, r.sharedPageCount());
+        Ram copy = new Ram(1_000);
+        copy.shareFrom(r);
+        assertEquals(r.pageCount(), r.sharedPageCount());
+        assertEquals(r.pageCount(), copy.sharedPageCount());
+        for (int a = 0; a < 1_000; ++a)
+            assertEquals(a & 0xFF, copy.read(a));
+        copy.write(300, 0x42);
+        r.write(999, 0x24);
+        assertEquals(r.pageCount() - 1, copy.sharedPageCount());
+        assertEquals(r.pageCount() - 1, r.sharedPageCount());
+        assertEquals(300 & 0xFF, r.read(300));
+        assertEquals(0x42, copy.read(300));
+        assertEquals(999 & 0xFF, copy.read(999));
+        assertEquals(0x24, r.read(999));
+    }
+
+    @Test
+    void loadStateStopsSharingPages() {
+        Ram r = new Ram(1_000);
+        Ram other = new Ram(1_000);
+        r.write(0, 0x11);
+        assertEquals(0, other.read(0));
+        Ram copy = new Ram(1_000);
+        copy.shareFrom(r);
+        ByteBuffer buffer = ByteBuffer.allocate(r.stateSize());
+        r.saveState(buffer);
+        copy.loadState(buffer.flip());
+        assertEquals(0, copy.sharedPageCount());
+        copy.write(0, 0x22);
+        copy.write(999, 0x33);
+        assertEquals(0x11, r.read(0));
+        assertEquals(0, r.read(999));
+        assertEquals(0, other.read(999));
+    }
+
+    @Test
+    void shareFromFailsForDifferentSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new Ram(10).shareFrom(new Ram(11)));
+        assertThrows(NullPointerException.class, () -> new Ram(10).shareFrom(null));
+    }
 }
@@ -0,0 +1,41 @@
+package ch.epfl.gameboj.component.memory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class RomRepositoryTest {
+    @Test
+    void internFailsForNullArray() {
+        assertThrows(NullPointerException.class, () -> new RomRepository().intern(null));
+    }
+
+    @Test
+    void internReturnsTheSameRomForTheSameContent() {
+        RomRepository repository = new RomRepository();
+        byte[] data = new byte[0x8000];
+        new Random(2018).nextBytes(data);
+        Rom rom = repository.intern(data);
+        assertSame(rom, repository.intern(data.clone()));
+        assertEquals(1, repository.size());
+        data[0x1234] ^= 1;
+        Rom other = repository.intern(data);
+        assertNotSame(rom, other);
+        assertEquals(2, repository.size());
+    }
+
+    @Test
+    void internedRomDoesNotDependOnTheGivenArray() {
+        RomRepository repository = new RomRepository();
+        byte[] data = { 1, 2, 3 };
+        Rom rom = repository.intern(data);
+        data[0] = 42;
+        assertEquals(1, rom.read(0));
+        assertSame(rom, repository.intern(new byte[] { 1, 2, 3 }));
+    }
+}
@@ -5,8 +5,11 @@ package ch.epfl.gameboj.component.memory;
 import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
 import static ch.epfl.test.TestRandomizer.newRandom;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -57,4 +60,32 @@ class RomTest {
                     () -> rom.read(k));
         }
     }
+
+    @Test
+    void equalsComparesContents() {
+        byte[] a = { 1, 2, 3 };
+        Rom rom = new Rom(a);
+        assertEquals(rom, new Rom(a));
+        assertEquals(rom.hashCode(), new Rom(a).hashCode());
+        assertTrue(rom.contentEquals(a));
+        a[2] = 4;
+        assertFalse(rom.equals(new Rom(a)));
+        assertFalse(rom.contentEquals(a));
+    }
+
+    @Test
+    void bufferRomReadsBufferContentsWithoutCopy() {
+        byte[] a = { 9, 1, 2, (byte) 0xFF, 9 };
+        ByteBuffer buffer = ByteBuffer.wrap(a);
+        buffer.position(1).limit(4);
+        Rom rom = Rom.ofBuffer(buffer);
+        assertEquals(3, rom.size());
+        assertEquals(1, rom.read(0));
+        assertEquals(0xFF, rom.read(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> rom.read(3));
+        assertEquals(new Rom(new byte[] { 1, 2, (byte) 0xFF }), rom);
+        assertEquals(new Rom(new byte[] { 1, 2, (byte) 0xFF }).hashCode(), rom.hashCode());
+        a[1] = 7;
+        assertEquals(7, rom.read(0));
+    }
 }